@@ -27,6 +27,23 @@ tasks.withType(JavaCompile::class).configureEach {
 
 //val vineflowerDecompiler: SourceSet by sourceSets.creating
 
+// Benchmarks, run with e.g. `./gradlew jmh -PjmhArgs="MergeEngineBenchmark -p client=client.jar -p server=server.jar -prof gc"`
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+configurations[jmh.runtimeOnlyConfigurationName].extendsFrom(configurations.runtimeOnly.get())
+
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args((project.findProperty("jmhArgs") as String? ?: "").split(' ').filter { it.isNotBlank() })
+}
+
 tasks.shadowJar {
     archiveClassifier.set("fat")
 }
@@ -59,6 +76,17 @@ dependencies {
     compileOnly("org.jetbrains:annotations:26.0.2")
 
     testCompileOnly("org.vineflower:vineflower:1.11.2")
+    testImplementation(platform("org.junit:junit-bom:5.11.4"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhCompileOnly"("org.jetbrains:annotations:26.0.2")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.test {
+    useJUnitPlatform()
 }
 
 tasks.processResources {
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.merge;
+
+import org.openjdk.jmh.annotations.*;
+import xland.ioutils.xdecompiler.util.zip.ZipArchive;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a merge engine on a real client/server pair, one class per operation, so that {@code -prof gc}
+ * reports the allocation per class. Pairs are handed over as {@link JarMerger} does: classes with the same CRC
+ * and size share one array.
+ * <p>
+ * {@code client} and {@code server} are paths to the jars, e.g. {@code -p client=client.jar -p server=server.jar}.
+ * For bundled servers, pass the nested server jar.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeEngineBenchmark {
+    @Param("asm")
+    public String engine;
+
+    @Param({"false", "true"})
+    public boolean postProcess;
+
+    @Param({"all", "differing"})
+    public String pairs;
+
+    @Param("")
+    public String client;
+
+    @Param("")
+    public String server;
+
+    private ClassMerger merger;
+    private byte[][] clientClasses, serverClasses;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        if (client.isEmpty() || server.isEmpty())
+            throw new IllegalArgumentException("Pass the jars to merge with -p client=<jar> -p server=<jar>");
+        merger = ClassMergerProvider.get(engine).create(postProcess, postProcess);
+
+        List<byte[]> clientList = new ArrayList<>(), serverList = new ArrayList<>();
+        try (ZipArchive c = ZipArchive.open(Path.of(client)); ZipArchive s = ZipArchive.open(Path.of(server))) {
+            TreeSet<String> names = new TreeSet<>();
+            for (ZipArchive.Entry e : c.entries()) if (e.name().endsWith(".class")) names.add(e.name());
+            for (ZipArchive.Entry e : s.entries()) {
+                final String name = e.name();
+                // the same filter as JarMerger, which skips libraries bundled in old servers
+                if (name.endsWith(".class") && (name.startsWith("net/minecraft/") || !name.contains("/"))) names.add(name);
+            }
+
+            for (String name : names) {
+                final ZipArchive.Entry ce = c.get(name), se = s.get(name);
+                final boolean identical = ce != null && se != null && ce.crc() == se.crc() && ce.size() == se.size();
+                if (identical && "differing".equals(pairs)) continue;
+
+                final byte[] clientBytes = ce == null ? null : c.read(ce);
+                clientList.add(clientBytes);
+                serverList.add(identical ? clientBytes : se == null ? null : s.read(se));
+            }
+        }
+        if (clientList.isEmpty()) throw new IllegalArgumentException("No classes to merge");
+        clientClasses = clientList.toArray(byte[][]::new);
+        serverClasses = serverList.toArray(byte[][]::new);
+    }
+
+    @Benchmark
+    public byte[] mergeClass() {
+        final int i = next;
+        next = i + 1 == clientClasses.length ? 0 : i + 1;
+        return merger.merge(clientClasses[i], serverClasses[i]);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.merge;
+
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.*;
+import xland.ioutils.xdecompiler.util.zip.ZipArchive;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single-pass {@link PostProcessClassVisitor} against the chain it replaced, one class per operation:
+ * a fresh {@code ClassWriter(0)} behind a side marker, {@link SnowmanClassVisitor} and
+ * {@link SyntheticParameterClassVisitor}. This is the work done for identical ({@code side=none}) and one-sided
+ * classes.
+ * <p>
+ * {@code input} is the path to a jar, e.g. {@code -p input=client.jar}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostProcessBenchmark {
+    @Param({"none", "CLIENT"})
+    public String side;
+
+    @Param("")
+    public String input;
+
+    private byte[][] classes;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        if (input.isEmpty())
+            throw new IllegalArgumentException("Pass the jar to post-process with -p input=<jar>");
+
+        List<byte[]> list = new ArrayList<>();
+        try (ZipArchive archive = ZipArchive.open(Path.of(input))) {
+            for (ZipArchive.Entry e : archive.entries()) {
+                if (e.name().endsWith(".class")) list.add(archive.read(e));
+            }
+        }
+        if (list.isEmpty()) throw new IllegalArgumentException("No classes to post-process");
+        classes = list.toArray(byte[][]::new);
+    }
+
+    private byte[] nextClass() {
+        final int i = next;
+        next = i + 1 == classes.length ? 0 : i + 1;
+        return classes[i];
+    }
+
+    private @Nullable String side() {
+        return "none".equals(side) ? null : side;
+    }
+
+    @Benchmark
+    public byte[] fused() {
+        final ClassReader cr = new ClassReader(nextClass());
+        final ClassWriter cw = new ClassWriter(cr, 0);
+        cr.accept(new PostProcessClassVisitor(cw, true, true, PostProcessClassVisitor.hasSnowmen(cr), side()), 0);
+        return cw.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] chain() {
+        final ClassReader cr = new ClassReader(nextClass());
+        final ClassWriter cw = new ClassWriter(0);
+        final String side = side();
+        ClassVisitor cv = side == null ? cw : new ASMClassMerger.SidedClassVisitor(Opcodes.ASM9, cw, side);
+        cv = new SyntheticParameterClassVisitor(new SnowmanClassVisitor(cv));
+        cr.accept(cv, 0);
+        return cw.toByteArray();
+    }
+}
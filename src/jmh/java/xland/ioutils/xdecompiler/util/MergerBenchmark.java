@@ -0,0 +1,137 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Compares {@link Merger#mergePreserveOrder(List, List, Function, Function)}, which keys its tables by name and
+ * descriptor without concatenating them, against the previous implementation: two {@code HashMap}s built
+ * through streams, keyed by {@code name + desc}, as the class merger used to call it. Run with {@code -prof gc}
+ * to compare the allocation per merge.
+ * <p>
+ * Each operation merges two lists of {@code size} members, as in one class, where about one in ten members
+ * is on one side only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergerBenchmark {
+    private static final String[] DESCRIPTORS = {
+            "()V", "(I)V", "()Ljava/lang/String;", "(Ljava/lang/Object;)Z", "(II)I", "(Lnet/minecraft/class_1;)V"
+    };
+
+    @Param({"4", "32", "256"})
+    public int size;
+
+    private List<Member> first, second;
+    private Merger<Member> merger;
+    private long merged;
+
+    record Member(String name, String desc) {}
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(size);
+        first = new ArrayList<>(size);
+        second = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // overloads, so that names alone are not unique
+            final Member m = new Member("method_" + i / 2, DESCRIPTORS[i % DESCRIPTORS.length]);
+            final int r = random.nextInt(20);
+            if (r != 0) first.add(m);
+            if (r != 1) second.add(m);
+        }
+        merger = new Merger<>(_ -> merged++, _ -> merged++, (_, _) -> merged++);
+    }
+
+    @Benchmark
+    public long keyTable() {
+        merger.mergePreserveOrder(first, second, Member::name, Member::desc);
+        return merged;
+    }
+
+    @Benchmark
+    public long hashMap() {
+        mergeWithMaps(merger, first, second, m -> m.name() + m.desc());
+        return merged;
+    }
+
+    // Merger.mergePreserveOrderRA before the key tables
+    private static <E, K> void mergeWithMaps(Merger<E> merger, List<? extends E> first, List<? extends E> second,
+                                             Function<? super E, ? extends K> keyExtractor) {
+        Map<K, E> firstEntries = first.stream().collect(Collectors.toMap(keyExtractor, Function.identity()));
+        Map<K, E> secondEntries = second.stream().collect(Collectors.toMap(keyExtractor, Function.identity()));
+
+        int i = 0, j = 0;
+
+        while (i < first.size() || j < second.size()) {
+            final int saved = i + j;
+
+            while (i < first.size() && j < second.size()) {
+                K key1 = keyExtractor.apply(first.get(i));
+                K key2 = keyExtractor.apply(second.get(j));
+                if (!Objects.equals(key1, key2)) {
+                    break;
+                }
+                merger.sharedConsumer().accept(first.get(i), second.get(j));
+                i++;
+                j++;
+            }
+
+            while (i < first.size() && !secondEntries.containsKey(keyExtractor.apply(first.get(i)))) {
+                merger.firstOnlyConsumer().accept(first.get(i));
+                i++;
+            }
+
+            while (j < second.size() && !firstEntries.containsKey(keyExtractor.apply(second.get(j)))) {
+                merger.secondOnlyConsumer().accept(second.get(j));
+                j++;
+            }
+
+            if (i + j == saved) {
+                for (; i < first.size(); i++) {
+                    E e = first.get(i);
+                    K k = keyExtractor.apply(e);
+                    if (secondEntries.containsKey(k)) {
+                        merger.sharedConsumer().accept(e, secondEntries.get(k));
+                    } else {
+                        merger.firstOnlyConsumer().accept(e);
+                    }
+                }
+
+                for (; j < second.size(); j++) {
+                    E e = second.get(j);
+                    if (!firstEntries.containsKey(keyExtractor.apply(e))) {
+                        merger.secondOnlyConsumer().accept(e);
+                    }
+                }
+            }
+        }
+    }
+}
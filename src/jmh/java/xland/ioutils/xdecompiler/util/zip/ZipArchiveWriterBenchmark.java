@@ -0,0 +1,93 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.util.zip;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a whole jar per operation, with the given number of deflate threads, to show how
+ * {@link ZipArchiveWriter} scales with cores. The output is discarded, so only compression and ordering count.
+ * <p>
+ * {@code input} is the path to a jar whose entries are written again, e.g. {@code -p input=client.jar}.
+ * Compare the {@code threads} up to the number of cores of the machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipArchiveWriterBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param("")
+    public String input;
+
+    private String[] names;
+    private byte[][] contents;
+
+    @Setup
+    public void setup() throws IOException {
+        if (input.isEmpty())
+            throw new IllegalArgumentException("Pass the jar to write with -p input=<jar>");
+
+        List<String> nameList = new ArrayList<>();
+        List<byte[]> contentList = new ArrayList<>();
+        try (ZipArchive archive = ZipArchive.open(Path.of(input))) {
+            for (ZipArchive.Entry e : archive.entries()) {
+                if (e.isDirectory()) continue;
+                nameList.add(e.name());
+                contentList.add(archive.read(e));
+            }
+        }
+        if (nameList.isEmpty()) throw new IllegalArgumentException("No entries to write");
+        names = nameList.toArray(String[]::new);
+        contents = contentList.toArray(byte[][]::new);
+    }
+
+    @Benchmark
+    public long writeJar() throws IOException {
+        final CountingStream out = new CountingStream();
+        try (ZipArchiveWriter writer = new ZipArchiveWriter(out, threads)) {
+            for (int i = 0; i < names.length; i++) {
+                writer.write(names[i], contents[i]);
+            }
+        }
+        return out.count;
+    }
+
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
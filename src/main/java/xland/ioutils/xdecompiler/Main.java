@@ -19,18 +19,21 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.util.PathConverter;
 import net.fabricmc.mappingio.tree.MappingTreeView;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import org.slf4j.Logger;
 import xland.ioutils.xdecompiler.decompile.DecompilerProvider;
 import xland.ioutils.xdecompiler.mappings.ClassMemberInfoPool;
 import xland.ioutils.xdecompiler.mappings.MappingProvider;
+import xland.ioutils.xdecompiler.mappings.MemberPoolSnapshots;
 import xland.ioutils.xdecompiler.mcmeta.ConcernedVersionDetail;
 import xland.ioutils.xdecompiler.mcmeta.VersionManifest;
+import xland.ioutils.xdecompiler.merge.ClassStore;
 import xland.ioutils.xdecompiler.merge.ExtractBundler;
 import xland.ioutils.xdecompiler.merge.JarMerger;
 import xland.ioutils.xdecompiler.remap.RemapUtil;
 import xland.ioutils.xdecompiler.util.*;
+import xland.ioutils.xdecompiler.util.zip.ZipArchive;
+import xland.ioutils.xdecompiler.util.zip.ZipArchiveWriter;
 
 import java.io.File;
 import java.io.IOException;
@@ -39,15 +42,16 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
-import java.util.jar.JarFile;
 import java.util.stream.Collectors;
-import java.util.zip.ZipOutputStream;
 
 public record Main(String version, DecompilerProvider decompilerProvider,
                    Path output, Path outputRes, Path libCache,
@@ -56,156 +60,207 @@ public record Main(String version, DecompilerProvider decompilerProvider,
 
     public void runProgram() throws Exception {
         LOGGER.info("Running for {}", version());
-        // 1. mcmeta
-        LOGGER.info("1. Downloading MCMeta...");
+        // Every stage below starts as soon as its own inputs are ready, so that network-bound stages
+        // (downloads, mapping fetches) overlap with CPU-bound ones (merge, remap).
+        LOGGER.info("Fetching MCMeta...");
         final VersionManifest.VersionMeta versionMeta = VersionManifest.getOrFetch().getVersion(version());
         Objects.requireNonNull(versionMeta, () -> "Missing version: " + version());
         final ConcernedVersionDetail detail = versionMeta.getOrFetchDetail();
+        // jars and official mappings download in the background from here on
+        detail.prefetch();
 
-        // 2. merge
-        LOGGER.info("2. Preparing client & server jars...");
-        final File clientJar = TempDirs.get().createFileDefaultFs();
-        final File serverJarUnprocessed = TempDirs.get().createFileDefaultFs();
-        detail.clientJar().download(clientJar.toPath());
-        detail.serverJar().download(serverJarUnprocessed.toPath());
-        File serverJar;
-        if (isBundledServerJar(serverJarUnprocessed)) {
-            LOGGER.info("\tDetected the server jar is bundled. Extracting...");
-            serverJar = TempDirs.get().createFileDefaultFs();
-            try (JarFile jf = new JarFile(serverJarUnprocessed)) {
-                ExtractBundler.run(jf, serverJar.toPath());
-            }
-        } else {
-            serverJar = serverJarUnprocessed;
-            LOGGER.info("\tServer jar is legacy, keep...");
-        }
-
-        LOGGER.info("\tMerging...");
-        final Path mergedJar = TempDirs.get().createFile(".jar");
-        final Path resources = TempDirs.get().createFile();
-
-        try (ZipOutputStream mergedJarOut = new ZipOutputStream(Files.newOutputStream(mergedJar));
-             ZipOutputStream resourcesOut = new ZipOutputStream(Files.newOutputStream(resources))) {
-            var jarMerger = new JarMerger(clientJar, serverJar, mergedJarOut, resourcesOut);
-            if (!detail.isUnobfuscated()) {     // optimizes unobfuscated versions
-                jarMerger.enableSnowmanRemoval();
-                jarMerger.enableSyntheticParamsOffset();
-            }
-            jarMerger.merge();
-        }
-
-        LOGGER.info("\tDumping resources...");
-        LOGGER.debug("Resources zip at {}", resources);
-        xland.ioutils.xdecompiler.util.DebugUtils.log(DebugUtils.DELETE_OLD_RESOURCES, l -> {
-            l.info("Deleting old files due to debug flag {}", DebugUtils.DELETE_OLD_RESOURCES);
-            try {
-                xland.ioutils.xdecompiler.util.FileUtils.deleteRecursively(outputRes(), true);
-            } catch (IOException e) {
-                l.warn("\tFailed to delete");
-            }
-        });
-        FileUtils.extractZip(resources, outputRes());
-
-        // 3. libraries
-        LOGGER.info("3. Downloading libraries...");
-        final Collection<Path> libraries = detail.downloadLibrariesAsync(libCache());
-
-        // 4. read class member info
-        LOGGER.info("4. Reading class member info...");
-        final ClassMemberInfoPool classMemberInfoPool = ClassMemberInfoPool.fromJar(mergedJar);
-
-        // 5. mappings
-        LOGGER.info("5. Generating mapping tree...");
-        final MappingTreeView mapping;
-        final Map.Entry<MappingTreeView, Collection<MappingProvider>> preparedMappings = MappingProvider.prepareAll(mappingProviders(), mappingArgs(), classMemberInfoPool, versionMeta);
-        mapping = preparedMappings.getKey();
-        Collection<MappingProvider> mappingsToRemap = preparedMappings.getValue();
-        LOGGER.info("\tTarget namespaces to remap: {}", mappingsToRemap.stream().map(MappingProvider::destNamespace).toList());
-
-        xland.ioutils.xdecompiler.util.DebugUtils.log(DebugUtils.DUMP_MAPPING_TREE, l -> {
-            try {
-                Path path = TempDirs.get().createFile();
-                l.info("Dumping mapping tree to {} due to debug flag {}", path, DebugUtils.DUMP_MAPPING_TREE);
-                try (var v = new net.fabricmc.mappingio.format.tiny.Tiny1FileWriter(Files.newBufferedWriter(path))) {
-                    mapping.accept(v);
-                }
-            } catch (IOException e) {
-                l.error("Failed to dump mapping tree", e);
-            }
-        });
-
-        // 6. remap & decompile
-        LOGGER.info("6. Starting remap & decompile...");
         // If there is more than one remap-free provider, then we can reuse its decompile result
         AtomicReference<String> firstRemapFreeProviderId = new AtomicReference<>();
         var copyCandidates = new CopyOnWriteArrayList<String>();
 
-        try (ExecutorService singleThreadExecutor = Executors.newSingleThreadExecutor()) {
-            // decompiling is always single-threaded
-
+        try (ExecutorService ioExecutor = ConcurrentUtils.namedVirtualThreadExecutor("pipeline");
+             // CPU-consuming
+             ExecutorService remapExecutor = ConcurrentUtils.namedPlatformThreadExecutor("remap", PublicProperties.remapThreads());
+             // decompiling is always single-threaded
+             ExecutorService decompileExecutor = Executors.newSingleThreadExecutor()) {
+            // client & server jars
+            final CompletableFuture<File> clientJar = ConcurrentUtils.stage("download client", ioExecutor,
+                    () -> ConcurrentUtils.joinUnwrapped(detail.clientJar().fetch()).toFile());
+            final CompletableFuture<File> serverJarUnprocessed = ConcurrentUtils.stage("download server", ioExecutor,
+                    () -> ConcurrentUtils.joinUnwrapped(detail.serverJar().fetch()).toFile());
+            // Bundled server jars (1.18+) are read in place, and ship most of the libraries
+            final CompletableFuture<ZipArchive> serverJar = ConcurrentUtils.stage("open server", ioExecutor, () -> {
+                final ZipArchive unprocessed = ZipArchive.open(serverJarUnprocessed.join().toPath());
+                if (!ExtractBundler.isBundler(unprocessed)) {
+                    LOGGER.info("\tServer jar is legacy, keep...");
+                    return unprocessed;
+                }
+                LOGGER.info("\tDetected the server jar is bundled. Opening it in place...");
+                return ExtractBundler.openServer(unprocessed);
+            }, serverJarUnprocessed);
+            // libraries, which do not wait for the server jar
+            final CompletableFuture<Collection<Path>> libraries = ConcurrentUtils.stage("libraries", ioExecutor,
+                    () -> detail.downloadLibrariesAsync(libCache()));
+            // Meanwhile, libraries which are not in the cache yet are copied from a bundled server jar as soon as it is
+            // there. Both sides verify what they write, so whichever of them places a library first, it is valid.
+            ConcurrentUtils.stage("seed libraries", ioExecutor, () -> {
+                try (ZipArchive bundler = ZipArchive.open(serverJarUnprocessed.join().toPath())) {
+                    if (ExtractBundler.isBundler(bundler)) {
+                        final Set<String> wanted = detail.libraries().stream()
+                                .map(library -> library.artifact().getPath())
+                                .collect(Collectors.toSet());
+                        final int seeded = ExtractBundler.seedLibraries(bundler, libCache(), wanted::contains);
+                        LOGGER.info("\tSeeded {} libraries from the server bundle", seeded);
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to seed libraries from the server bundle", e);
+                }
+                return null;
+            }, serverJarUnprocessed);
+
+            // class member info from an earlier run over the same jars, if any
+            final MemberPoolSnapshots poolSnapshots = MemberPoolSnapshots.create();
+            final String poolFingerprint = String.join("\0", detail.clientJar().hash(), detail.serverJar().hash(),
+                    PublicProperties.mergeEngine(), CommonUtils.programVersion());
+            final CompletableFuture<ClassMemberInfoPool> poolSnapshot = ConcurrentUtils.stage("member pool snapshot", ioExecutor,
+                    () -> poolSnapshots != null ? poolSnapshots.load(poolFingerprint) : null);
+
+            // merge
+            // Merged classes stay in memory; a jar is written only for consumers which need a path
+            record Merged(ClassStore classes, Path resources, ClassMemberInfoPool memberPool) {}
+            // set once the merge stage owns the server archive, which is closed below otherwise
+            final AtomicBoolean serverTaken = new AtomicBoolean();
+            final CompletableFuture<Merged> merged = ConcurrentUtils.stage("merge", ioExecutor, () -> {
+                final ClassStore classes = ClassStore.create();
+                final Path resources = TempDirs.get().createFile();
+                final ClassMemberInfoPool snapshot = poolSnapshot.join();
+                final ClassMemberInfoPool.Builder memberPool = snapshot == null ? ClassMemberInfoPool.builder() : null;
+
+                try (ZipArchiveWriter resourcesOut = ZipArchiveWriter.create(resources)) {
+                    final ZipArchive clientArchive = ZipArchive.open(clientJar.join().toPath());
+                    serverTaken.set(true);
+                    try (var jarMerger = new JarMerger(clientArchive, serverJar.join(), classes, resourcesOut)) {
+                        if (!detail.isUnobfuscated()) {     // optimizes unobfuscated versions
+                            jarMerger.enableSnowmanRemoval();
+                            jarMerger.enableSyntheticParamsOffset();
+                        }
+                        // class member info is read while merging, instead of scanning the merged classes again
+                        if (memberPool != null) jarMerger.setClassListener(memberPool::accept);
+                        jarMerger.merge();
+                    }
+                }
+                if (snapshot != null) return new Merged(classes, resources, snapshot);
+
+                final ClassMemberInfoPool built = memberPool.build();
+                if (poolSnapshots != null) poolSnapshots.save(poolFingerprint, built);
+                return new Merged(classes, resources, built);
+            }, clientJar, serverJar, poolSnapshot);
+            // the merge stage may fail before taking the server archive, or not run at all if another input failed
+            serverJar.whenComplete((archive, _) -> merged.whenComplete((_, _) -> {
+                if (archive != null && !serverTaken.get()) archive.close();
+            }));
+
+            final CompletableFuture<Void> resourcesDumped = ConcurrentUtils.stage("resources", ioExecutor, () -> {
+                final Path resources = merged.join().resources();
+                LOGGER.debug("Resources zip at {}", resources);
+                xland.ioutils.xdecompiler.util.DebugUtils.log(DebugUtils.DELETE_OLD_RESOURCES, l -> {
+                    l.info("Deleting old files due to debug flag {}", DebugUtils.DELETE_OLD_RESOURCES);
+                    try {
+                        xland.ioutils.xdecompiler.util.FileUtils.deleteRecursively(outputRes(), true);
+                    } catch (IOException e) {
+                        l.warn("\tFailed to delete");
+                    }
+                });
+                FileUtils.extractZip(resources, outputRes());
+                return null;
+            }, merged);
+
+            final CompletableFuture<ClassMemberInfoPool> classMemberInfoPool = poolSnapshot.thenCompose(snapshot ->
+                    snapshot != null ? CompletableFuture.completedFuture(snapshot) : merged.thenApply(Merged::memberPool));
+
+            // mappings
+            // Providers start fetching right away; only those which do filter by class members wait for the pool.
+            final CompletableFuture<Map.Entry<MappingTreeView, Collection<MappingProvider>>> preparedMappings = ConcurrentUtils.stage("mappings", ioExecutor, () -> {
+                final Map.Entry<MappingTreeView, Collection<MappingProvider>> prepared = MappingProvider.prepareAll(
+                        mappingProviders(), mappingArgs(), ClassMemberInfoPool.deferred(classMemberInfoPool), versionMeta
+                );
+                LOGGER.info("\tTarget namespaces to remap: {}", prepared.getValue().stream().map(MappingProvider::destNamespace).toList());
+
+                final MappingTreeView mapping = prepared.getKey();
+                xland.ioutils.xdecompiler.util.DebugUtils.log(DebugUtils.DUMP_MAPPING_TREE, l -> {
+                    try {
+                        Path path = TempDirs.get().createFile();
+                        l.info("Dumping mapping tree to {} due to debug flag {}", path, DebugUtils.DUMP_MAPPING_TREE);
+                        try (var v = new net.fabricmc.mappingio.format.tiny.Tiny1FileWriter(Files.newBufferedWriter(path))) {
+                            mapping.accept(v);
+                        }
+                    } catch (IOException e) {
+                        l.error("Failed to dump mapping tree", e);
+                    }
+                });
+                return prepared;
+            });
+
+            // remap & decompile
             record DecompileInput(Path decompileSource, String providerId, boolean isRemapFree) {}
 
-            // CPU-consuming
-            ConcurrentUtils.runPlatform("remap", PublicProperties.remapThreads(), executors -> mappingsToRemap.stream()
-                    .map(provider -> {
-                        final String destNamespace = provider.destNamespace();
-                        final String providerId = provider.id();
+            final CompletableFuture<Void> decompiled = preparedMappings.thenCompose(prepared -> {
+                final MappingTreeView mapping = prepared.getKey();
 
-                        if (mapping.getNamespaceId(destNamespace) == MappingTreeView.NULL_NAMESPACE_ID) {
-                            // no remapping needed
-                            LOGGER.info("No remapping needed for {}", providerId);
-                            return CompletableFuture.completedFuture(new DecompileInput(mergedJar, providerId, true));
-                        }
+                return CompletableFuture.allOf(prepared.getValue().stream()
+                        .map(provider -> {
+                            final String destNamespace = provider.destNamespace();
+                            final String providerId = provider.id();
 
-                        return CompletableFuture.supplyAsync(() -> {
-                            // remap
-                            LOGGER.info("...Remapping {}", providerId);
-                            try {
-                                final long t0 = System.nanoTime();
-                                final Path remapped = TempDirs.get().createFile();
-                                Files.deleteIfExists(remapped); // to avoid ProviderNotFoundException
-                                remap(mergedJar, libraries, remapped, mapping, destNamespace);
-                                LOGGER.info("...Remapped {} in {}", providerId, TimeUtils.timeFormat(System.nanoTime() - t0));
+                            if (mapping.getNamespaceId(destNamespace) == MappingTreeView.NULL_NAMESPACE_ID) {
+                                // no remapping needed
+                                LOGGER.info("No remapping needed for {}", providerId);
+                                return ConcurrentUtils.stage("materialize " + providerId, ioExecutor,
+                                        () -> new DecompileInput(merged.join().classes().materialize(), providerId, true), merged);
+                            }
+
+                            return ConcurrentUtils.stage("remap " + providerId, remapExecutor, () -> {
+                                final Path remapped = TempDirs.get().createFile(".jar");
+                                remap(merged.join().classes().materialize(), libraries.join(), remapped, mapping, destNamespace);
                                 return new DecompileInput(remapped, providerId, false);
+                            }, merged, libraries);
+                        })
+                        .map(cf -> cf.thenCombineAsync(libraries, (decompileInput, classpath) -> {
+                            // decompile
+                            if (decompileInput.isRemapFree()) {
+                                if (!firstRemapFreeProviderId.compareAndSet(null, decompileInput.providerId())) {
+                                    // Reuse its result. Queue into copy candidates
+                                    copyCandidates.add(decompileInput.providerId());
+                                    return null;
+                                }
+                            }
+
+                            LOGGER.info("...Decompiling {}", decompileInput.providerId());
+                            LOGGER.debug("\tClasses of {} is from {}", decompileInput.providerId(), decompileInput.decompileSource());
+
+                            final Path pathOut = output().resolve(decompileInput.providerId());
+                            try {
+                                Files.createDirectories(pathOut);
                             } catch (IOException e) {
                                 CommonUtils.sneakyThrow(e);
-                                throw new IncompatibleClassChangeError(); // unreachable
-                            }
-                        }, executors);
-                    })
-                    .map(cf -> cf.thenAcceptAsync(decompileInput -> {
-                        // decompile
-                        if (decompileInput.isRemapFree()) {
-                            if (!firstRemapFreeProviderId.compareAndSet(null, decompileInput.providerId())) {
-                                // Reuse its result. Queue into copy candidates
-                                copyCandidates.add(decompileInput.providerId());
-                                return;
                             }
-                        }
-
-                        LOGGER.info("...Decompiling {}", decompileInput.providerId());
-                        LOGGER.debug("\tClasses of {} is from {}", decompileInput.providerId(), decompileInput.decompileSource());
 
-                        final Path pathOut = output().resolve(decompileInput.providerId());
-                        try {
-                            Files.createDirectories(pathOut);
-                        } catch (IOException e) {
-                            CommonUtils.sneakyThrow(e);
-                        }
+                            final long t0 = System.nanoTime();
+                            decompilerProvider().decompile(decompileInput.decompileSource(), classpath, pathOut);
+                            LOGGER.info("...Decompiled {} in {}", decompileInput.providerId(), TimeUtils.timeFormat(System.nanoTime() - t0));
+                            return null;
+                        }, decompileExecutor))
+                        .toArray(CompletableFuture[]::new));
+            });
 
-                        decompilerProvider().decompile(decompileInput.decompileSource(), libraries, pathOut);
-                    }, singleThreadExecutor))
-            );
-
-            if (firstRemapFreeProviderId.get() != null) {
-                Path src = output().resolve(firstRemapFreeProviderId.get());
-                for (String candidate : copyCandidates) {
-                    Path dst = output().resolve(candidate);
-                    LOGGER.info("...Copying decompile result from {} to {}", firstRemapFreeProviderId.get(), candidate);
-                    // Copy the whole directory (src -> dst), including all contents of all depths.
-                    // Creates dst if not exist
-                    FileUtils.copyDirRecursively(src, dst);
-                }
+            ConcurrentUtils.joinUnwrapped(CompletableFuture.allOf(resourcesDumped, decompiled));
+        }
+        LOGGER.info("Downloads:");
+        DownloadService.get().logStats();
+
+        if (firstRemapFreeProviderId.get() != null) {
+            Path src = output().resolve(firstRemapFreeProviderId.get());
+            for (String candidate : copyCandidates) {
+                Path dst = output().resolve(candidate);
+                LOGGER.info("...Copying decompile result from {} to {}", firstRemapFreeProviderId.get(), candidate);
+                // Copy the whole directory (src -> dst), including all contents of all depths.
+                // Creates dst if not exist
+                FileUtils.copyDirRecursively(src, dst);
             }
         }
     }
@@ -214,23 +269,34 @@ public record Main(String version, DecompilerProvider decompilerProvider,
                               MappingTreeView mapping, String targetNs) throws IOException {
         final TinyRemapper r = RemapUtil.getTinyRemapper(mapping, MappingProvider.SOURCE_NAMESPACE, targetNs, _ -> {});
 
-        try (OutputConsumerPath outputConsumerPath = new OutputConsumerPath.Builder(output)
-                .assumeArchive(true).build()) {
+        try (ZipArchiveWriter writer = ZipArchiveWriter.create(output)) {
             r.readInputs(input);
             r.readClassPath(libraries.toArray(new Path[0]));
-            r.apply(outputConsumerPath);
+            if (PublicProperties.deterministic()) {
+                // classes come in whatever order the remapper's threads finish them
+                Map<String, byte[]> sorted = new ConcurrentSkipListMap<>();
+                r.apply((name, bytes) -> sorted.put(name + ".class", bytes));
+                for (Map.Entry<String, byte[]> e : sorted.entrySet()) {
+                    writer.write(e.getKey(), e.getValue());
+                }
+            } else {
+                r.apply((name, bytes) -> {
+                    // may be called from the remapper's own threads
+                    synchronized (writer) {
+                        try {
+                            writer.write(name + ".class", bytes);
+                        } catch (IOException e) {
+                            CommonUtils.sneakyThrow(e);
+                        }
+                    }
+                });
+            }
         } finally {
             r.finish();
             LOGGER.debug("Finished remapping from {} to {}", input, output);
         }
     }
 
-    private static boolean isBundledServerJar(File file) throws IOException {
-        try (JarFile jarFile = new JarFile(file)) {
-            return (jarFile.getJarEntry("net/minecraft/bundler/Main.class")) != null;
-        }
-    }
-
     public static void main(String... args) {
         OptionParser parser = new OptionParser();
         var mappings = parser.accepts("mappings", "Mappings to load, with arguments")
@@ -22,4 +22,46 @@ public interface ClassMemberInfoPool {
     static ClassMemberInfoPool fromJar(java.nio.file.Path jar) throws java.io.IOException {
         return ClassMemberInfoPoolImpl.fromJar(jar);
     }
+
+    static ClassMemberInfoPool fromClasses(Iterable<byte[]> classes) {
+        return ClassMemberInfoPoolImpl.fromClasses(classes);
+    }
+
+    /**
+     * @return a builder which classes can be fed to while they are produced, e.g. by
+     * {@link xland.ioutils.xdecompiler.merge.JarMerger#setClassListener(java.util.function.Consumer)}
+     */
+    static Builder builder() {
+        return new ClassMemberInfoPoolImpl.PoolBuilder();
+    }
+
+    interface Builder {
+        /**
+         * May be called concurrently.
+         */
+        void accept(byte[] classFile);
+
+        /**
+         * @return the pool, which must not be fed any more classes
+         */
+        ClassMemberInfoPool build();
+    }
+
+    /**
+     * @return a view which blocks on {@code future} upon the first lookup, so that consumers can be
+     * started before the pool is ready
+     */
+    static ClassMemberInfoPool deferred(java.util.concurrent.CompletableFuture<? extends ClassMemberInfoPool> future) {
+        return new ClassMemberInfoPool() {
+            @Override
+            public boolean hasField(String owner, String name, String desc) {
+                return future.join().hasField(owner, name, desc);
+            }
+
+            @Override
+            public boolean hasMethod(String owner, String name, String desc) {
+                return future.join().hasMethod(owner, name, desc);
+            }
+        };
+    }
 }
\ No newline at end of file
@@ -15,72 +15,317 @@
  */
 package xland.ioutils.xdecompiler.mappings;
 
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.*;
 
+import xland.ioutils.xdecompiler.util.zip.ZipArchive;
+
 import java.io.IOException;
-import java.nio.file.Files;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Owners, names and descriptors are interned to ids, and each member is packed into a single {@code long}
+ * of (kind, owner id, name id, descriptor id). Both tables use open addressing, so that lookups do not
+ * allocate, except for remembering the owner when it changes.
+ * <p>
+ * The whole pool lives in one segment, which is also its snapshot format: built pools are backed by
+ * the heap, and loaded snapshots are mapped as they are.
+ * <pre>
+ * header   int magic, format, member capacity, symbol capacity, symbol count, char count; 8 bytes reserved
+ * members  long[member capacity], 0 for empty slots
+ * symbols  int[2 * symbol capacity], hash and id of each symbol, id 0 for empty slots
+ * offsets  int[symbol count + 2], chars of symbol id are [offsets[id], offsets[id + 1])
+ * chars    char[char count]
+ * </pre>
+ */
 final class ClassMemberInfoPoolImpl implements ClassMemberInfoPool {
-    private final Map<String, Set<Map.Entry<String, String>>> fieldMap, methodMap;
+    private static final int MAGIC = 0x584D5050;   // XMPP
+    private static final int FORMAT = 1;
+    private static final long HEADER_SIZE = 32;
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfChar CHAR = ValueLayout.JAVA_CHAR.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private static final int ID_BITS = 21;
+    private static final int MAX_SYMBOLS = (1 << ID_BITS) - 1;
+    private static final long METHOD = 1L << 63;
+
+    private final MemorySegment segment;
+    private final int memberMask, symbolMask;
+    private final long symbolsOffset, offsetsOffset, charsOffset;
+
+    // Lookups come in runs for the same owner. Racy, but the record is immutable
+    private @Nullable LastOwner lastOwner;
+
+    private record LastOwner(String owner, int id) {}
+
+    private ClassMemberInfoPoolImpl(MemorySegment segment) {
+        this.segment = segment;
+        final int memberCapacity = segment.get(INT, 8), symbolCapacity = segment.get(INT, 12);
+        this.memberMask = memberCapacity - 1;
+        this.symbolMask = symbolCapacity - 1;
+        this.symbolsOffset = HEADER_SIZE + 8L * memberCapacity;
+        this.offsetsOffset = symbolsOffset + 8L * symbolCapacity;
+        this.charsOffset = offsetsOffset + 4L * (segment.get(INT, 16) + 2);
+    }
 
-    ClassMemberInfoPoolImpl() {
-        fieldMap = new HashMap<>();
-        methodMap = new HashMap<>();
+    private static long byteSize(int memberCapacity, int symbolCapacity, int symbolCount, int charCount) {
+        return HEADER_SIZE + 8L * memberCapacity + 8L * symbolCapacity + 4L * (symbolCount + 2) + 2L * charCount;
     }
 
     static ClassMemberInfoPoolImpl fromJar(Path jar) throws IOException {
-        ClassMemberInfoPoolImpl pool = new ClassMemberInfoPoolImpl();
-        try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(jar))) {
-            ZipEntry e;
-            while ((e = zis.getNextEntry()) != null) {
-                if (!e.getName().endsWith(".class"))
+        PoolBuilder builder = new PoolBuilder();
+        try (ZipArchive zip = ZipArchive.open(jar)) {
+            for (ZipArchive.Entry e : zip.entries()) {
+                if (!e.name().endsWith(".class"))
                     continue;
-                ClassReader cr = new ClassReader(zis);
-                final String className = cr.getClassName();
-                cr.accept(new ClassVisitor(Opcodes.ASM9) {
-                    @Override
-                    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
-                        putMember(pool.fieldMap, className, name, descriptor);
-                        return null;
-                    }
-
-                    @Override
-                    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
-                        putMember(pool.methodMap, className, name, descriptor);
-                        return null;
-                    }
-                }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG);
+                builder.accept(zip.read(e));
             }
         }
-        return pool;
+        return builder.build();
+    }
+
+    static ClassMemberInfoPoolImpl fromClasses(Iterable<byte[]> classes) {
+        PoolBuilder builder = new PoolBuilder();
+        for (byte[] classFile : classes) {
+            builder.accept(classFile);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Maps a snapshot written by {@link #bytes()}. Only the header is checked, so this takes constant time.
+     *
+     * @throws IOException if the file is not a complete snapshot of the current format
+     */
+    static ClassMemberInfoPoolImpl map(Path file) throws IOException {
+        final MemorySegment segment;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE) throw new IOException("Truncated member pool snapshot: " + file);
+            // the mapping outlives the channel
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, Arena.ofAuto());
+        }
+        if (segment.get(INT, 0) != MAGIC || segment.get(INT, 4) != FORMAT) {
+            throw new IOException("Not a member pool snapshot of format " + FORMAT + ": " + file);
+        }
+        if (segment.byteSize() != byteSize(segment.get(INT, 8), segment.get(INT, 12), segment.get(INT, 16), segment.get(INT, 20))) {
+            throw new IOException("Truncated member pool snapshot: " + file);
+        }
+        return new ClassMemberInfoPoolImpl(segment);
+    }
+
+    /**
+     * @return the snapshot of this pool
+     */
+    byte[] bytes() {
+        return segment.toArray(ValueLayout.JAVA_BYTE);
     }
 
     @Override
     public boolean hasField(String owner, String name, String desc) {
-        return hasMember(fieldMap, owner, name, desc);
+        return hasMember(0L, owner, name, desc);
     }
 
     @Override
     public boolean hasMethod(String owner, String name, String desc) {
-        return hasMember(methodMap, owner, name, desc);
+        return hasMember(METHOD, owner, name, desc);
+    }
+
+    private boolean hasMember(long kind, String owner, String name, String desc) {
+        final int ownerId = ownerId(owner);
+        if (ownerId == 0) return false;
+        final int nameId = symbolId(name, name.hashCode());
+        if (nameId == 0) return false;
+        final int descId = symbolId(desc, desc.hashCode());
+        if (descId == 0) return false;
+        return containsMember(pack(kind, ownerId, nameId, descId));
+    }
+
+    private static long pack(long kind, int owner, int name, int desc) {
+        return kind | (long) owner << (2 * ID_BITS) | (long) name << ID_BITS | desc;
+    }
+
+    // Owners may be given as binary names. '.' never occurs in internal names, names or descriptors,
+    // so it is looked up as '/' without allocating the replaced string.
+    private int ownerId(String owner) {
+        final LastOwner last = lastOwner;
+        if (last != null && last.owner() == owner) return last.id();
+
+        final int id = symbolId(owner, owner.indexOf('.') >= 0 ? internalHash(owner) : owner.hashCode());
+        lastOwner = new LastOwner(owner, id);
+        return id;
+    }
+
+    private int symbolId(String s, int hash) {
+        for (int i = mix(hash) & symbolMask; ; i = (i + 1) & symbolMask) {
+            final long slot = symbolsOffset + 8L * i;
+            final int id = segment.get(INT, slot + 4);
+            if (id == 0) return 0;
+            if (segment.get(INT, slot) == hash && symbolEquals(id, s)) return id;
+        }
     }
 
-    private static boolean hasMember(Map<String, Set<Map.Entry<String, String>>> map,
-                                     String owner, String name, String desc) {
-        var classInfo = map.get(owner.replace('.', '/'));
-        if (classInfo == null) return false;
-        return classInfo.contains(Map.entry(name, desc));
+    private boolean symbolEquals(int id, String s) {
+        final int start = segment.get(INT, offsetsOffset + 4L * id);
+        final int length = s.length();
+        if (segment.get(INT, offsetsOffset + 4L * (id + 1)) - start != length) return false;
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (segment.get(CHAR, charsOffset + 2L * (start + i)) != (c == '.' ? '/' : c)) return false;
+        }
+        return true;
+    }
+
+    private boolean containsMember(long member) {
+        for (int i = mix(Long.hashCode(member)) & memberMask; ; i = (i + 1) & memberMask) {
+            final long candidate = segment.get(LONG, HEADER_SIZE + 8L * i);
+            if (candidate == 0) return false;
+            if (candidate == member) return true;
+        }
+    }
+
+    // same as String.hashCode() of s.replace('.', '/')
+    private static int internalHash(String s) {
+        int h = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            final char c = s.charAt(i);
+            h = 31 * h + (c == '.' ? '/' : c);
+        }
+        return h;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // a power of two with at least one empty slot per entry
+    private static int tableSize(int entries) {
+        return Integer.highestOneBit(Math.max(1, entries) * 2 - 1) << 1;
     }
 
-    private static void putMember(Map<String, Set<Map.Entry<String, String>>> map,
-                                  String owner, String name, String desc) {
-        map.computeIfAbsent(owner, _ -> new HashSet<>()).add(Map.entry(name, desc));
+    static final class PoolBuilder implements ClassMemberInfoPool.Builder {
+        // Classes are only parsed here; interning and packing happen in build(), on a single thread
+        private final Queue<ClassMembers> classes = new ConcurrentLinkedQueue<>();
+
+        // names and descriptors, alternately
+        private record ClassMembers(String owner, List<String> fields, List<String> methods) {}
+
+        @Override
+        public void accept(byte[] classFile) {
+            final ClassReader cr = new ClassReader(classFile);
+            final List<String> fields = new ArrayList<>(), methods = new ArrayList<>();
+            cr.accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                    fields.add(name);
+                    fields.add(descriptor);
+                    return null;
+                }
+
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    methods.add(name);
+                    methods.add(descriptor);
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG);
+            classes.add(new ClassMembers(cr.getClassName(), fields, methods));
+        }
+
+        @Override
+        public ClassMemberInfoPoolImpl build() {
+            final Map<String, Integer> ids = new HashMap<>();
+            final List<String> symbols = new ArrayList<>();
+            final List<long[]> packed = new ArrayList<>(classes.size());
+            int memberCount = 0;
+            for (ClassMembers c : classes) {
+                final int owner = intern(ids, symbols, c.owner());
+                final long[] members = new long[(c.fields().size() + c.methods().size()) >> 1];
+                int k = pack(members, 0, ids, symbols, 0L, owner, c.fields());
+                pack(members, k, ids, symbols, METHOD, owner, c.methods());
+                packed.add(members);
+                memberCount += members.length;
+            }
+
+            int charCount = 0;
+            for (String symbol : symbols) charCount += symbol.length();
+            final int memberCapacity = tableSize(memberCount), symbolCapacity = tableSize(symbols.size());
+            final long size = byteSize(memberCapacity, symbolCapacity, symbols.size(), charCount);
+            // backed by a long[], so that every layout above is aligned
+            final MemorySegment segment = MemorySegment.ofArray(new long[(int) ((size + 7) >> 3)]).asSlice(0, size);
+
+            segment.set(INT, 0, MAGIC);
+            segment.set(INT, 4, FORMAT);
+            segment.set(INT, 8, memberCapacity);
+            segment.set(INT, 12, symbolCapacity);
+            segment.set(INT, 16, symbols.size());
+            segment.set(INT, 20, charCount);
+
+            for (long[] members : packed) {
+                for (long member : members) {
+                    int i = mix(Long.hashCode(member)) & (memberCapacity - 1);
+                    long candidate;
+                    while ((candidate = segment.get(LONG, HEADER_SIZE + 8L * i)) != 0 && candidate != member) {
+                        i = (i + 1) & (memberCapacity - 1);
+                    }
+                    segment.set(LONG, HEADER_SIZE + 8L * i, member);
+                }
+            }
+
+            final long symbolsOffset = HEADER_SIZE + 8L * memberCapacity;
+            final long offsetsOffset = symbolsOffset + 8L * symbolCapacity;
+            final long charsOffset = offsetsOffset + 4L * (symbols.size() + 2);
+            int chars = 0;
+            for (int id = 1; id <= symbols.size(); id++) {
+                final String symbol = symbols.get(id - 1);
+                final int hash = symbol.hashCode();
+                int i = mix(hash) & (symbolCapacity - 1);
+                while (segment.get(INT, symbolsOffset + 8L * i + 4) != 0) i = (i + 1) & (symbolCapacity - 1);
+                segment.set(INT, symbolsOffset + 8L * i, hash);
+                segment.set(INT, symbolsOffset + 8L * i + 4, id);
+
+                segment.set(INT, offsetsOffset + 4L * id, chars);
+                for (int k = 0; k < symbol.length(); k++) {
+                    segment.set(CHAR, charsOffset + 2L * chars++, symbol.charAt(k));
+                }
+            }
+            segment.set(INT, offsetsOffset + 4L * (symbols.size() + 1), chars);
+            return new ClassMemberInfoPoolImpl(segment);
+        }
+
+        private static int intern(Map<String, Integer> ids, List<String> symbols, String symbol) {
+            Integer id = ids.get(symbol);
+            if (id == null) {
+                if (symbols.size() >= MAX_SYMBOLS) throw new IllegalStateException("More than " + MAX_SYMBOLS + " distinct symbols");
+                symbols.add(symbol);
+                id = symbols.size();
+                ids.put(symbol, id);
+            }
+            return id;
+        }
+
+        private static int pack(long[] members, int k, Map<String, Integer> ids, List<String> symbols,
+                                long kind, int owner, List<String> namesAndDescs) {
+            for (int i = 0; i < namesAndDescs.size(); i += 2) {
+                members[k++] = ClassMemberInfoPoolImpl.pack(kind, owner,
+                        intern(ids, symbols, namesAndDescs.get(i)), intern(ids, symbols, namesAndDescs.get(i + 1)));
+            }
+            return k;
+        }
     }
 }
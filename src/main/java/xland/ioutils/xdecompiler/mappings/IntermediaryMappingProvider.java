@@ -22,6 +22,7 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import xland.ioutils.xdecompiler.mcmeta.VersionManifest;
 import xland.ioutils.xdecompiler.mcmeta.libraries.MavenArtifact;
+import xland.ioutils.xdecompiler.util.DownloadService;
 import xland.ioutils.xdecompiler.util.LogUtils;
 import xland.ioutils.xdecompiler.util.PublicProperties;
 
@@ -51,7 +52,7 @@ public class IntermediaryMappingProvider implements MappingProvider {
         }
 
         final String versionId = versionMeta.id();
-        Json meta = Json.read(URI.create("https://meta.fabricmc.net/v2/versions/intermediary/" + versionId).toURL());
+        Json meta = Json.read(DownloadService.get().readString(URI.create("https://meta.fabricmc.net/v2/versions/intermediary/" + versionId).toURL()));
         if (meta.asJsonList().isEmpty()) {
             LOGGER.warn("Missing intermediary for version {}", versionId);
             return MappingUtil.emptyMappingTreeView();
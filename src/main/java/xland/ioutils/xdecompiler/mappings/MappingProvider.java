@@ -24,13 +24,11 @@ import xland.ioutils.xdecompiler.util.*;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public interface MappingProvider extends Identified {
     String SOURCE_NAMESPACE = "official";
@@ -61,32 +59,37 @@ public interface MappingProvider extends Identified {
                         "; available providers are " + map.keySet());
         });
 
+        // Fixed order, so that the combined tree does not depend on which provider finishes first
+        final List<MappingProvider> providers = orderedProviders(map);
+
         MemoryMappingTree tree = new MemoryMappingTree();
         tree.setSrcNamespace(SOURCE_NAMESPACE);
-        tree.setDstNamespaces(map.values().stream().map(MappingProvider::destNamespace).collect(Collectors.toList()));
-        CopyOnWriteArrayList<MappingTreeView> treeViews = new CopyOnWriteArrayList<>();
+        tree.setDstNamespaces(providers.stream().map(MappingProvider::destNamespace).collect(Collectors.toList()));
+        final MappingTreeView[] treeViews = new MappingTreeView[providers.size()];
         AtomicBoolean isNonEmptyTree = new AtomicBoolean();
-        CopyOnWriteArrayList<MappingProvider> mappingsToRemap = new CopyOnWriteArrayList<>();
 
-        ConcurrentUtils.runVirtual("mapping-provider", executors -> map.values().stream()
-                .map(p -> CompletableFuture.supplyAsync(() -> {
+        ConcurrentUtils.runVirtual("mapping-provider", executors -> IntStream.range(0, treeViews.length)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> {
+                    final MappingProvider p = providers.get(i);
                     try {
                         final MappingTreeView treeView = p.prepare(classMemberInfoPool, versionMeta, args.getOrDefault(p.id(), ""));
-                        if (p.isRemapTarget()) mappingsToRemap.add(p);
                         if (!(treeView instanceof MappingUtil.EmptyMappingTreeView)) isNonEmptyTree.set(true);
-                        return treeView;
+                        treeViews[i] = treeView;
                     } catch (FileNotFoundException e) {
                         LogUtils.getLogger().warn("Failed to prepare {} because the corresponding mapping is absent: {}",
                                 p.id(), e.toString());
-                        return null;
                     } catch (IOException e) {
                         CommonUtils.sneakyThrow(e);
-                        throw new AssertionError();
                     }
                 }, executors))
-                .map(f -> f.thenAccept(treeViews::add))
         );
 
+        List<MappingProvider> mappingsToRemap = new ArrayList<>();
+        for (int i = 0; i < treeViews.length; i++) {
+            if (treeViews[i] != null && providers.get(i).isRemapTarget())
+                mappingsToRemap.add(providers.get(i));
+        }
+
         if (!isNonEmptyTree.get()) {    // all mappings are empty
             return Map.entry(MappingUtil.emptyMappingTreeView(), mappingsToRemap);
         }
@@ -102,4 +105,25 @@ public interface MappingProvider extends Identified {
 
         return Map.entry(tree, mappingsToRemap);
     }
+
+    /**
+     * @return providers sorted by id, each one following those it depends on
+     */
+    private static List<MappingProvider> orderedProviders(Map<String, MappingProvider> map) {
+        List<MappingProvider> ordered = new ArrayList<>(map.size());
+        Set<String> visited = new HashSet<>();
+        for (String id : new TreeSet<>(map.keySet())) {
+            visitProvider(map, id, visited, ordered);
+        }
+        return ordered;
+    }
+
+    private static void visitProvider(Map<String, MappingProvider> map, String id, Set<String> visited, List<MappingProvider> ordered) {
+        if (!visited.add(id)) return;
+        final MappingProvider provider = map.get(id);
+        for (String dependency : new TreeSet<>(provider.dependOn())) {
+            visitProvider(map, dependency, visited, ordered);
+        }
+        ordered.add(provider);
+    }
 }
@@ -21,6 +21,7 @@ import net.fabricmc.mappingio.format.tiny.Tiny1FileReader;
 import net.fabricmc.mappingio.tree.MappingTreeView;
 import net.fabricmc.mappingio.tree.VisitOrder;
 import org.jetbrains.annotations.Nullable;
+import xland.ioutils.xdecompiler.util.DownloadService;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -34,7 +35,7 @@ import java.util.zip.ZipInputStream;
 
 public final class MappingUtil {
     static void readV1RemoteJar(URL url, MappingVisitor visitor) throws IOException {
-        try (ZipInputStream zis = new ZipInputStream(url.openStream())) {
+        try (ZipInputStream zis = new ZipInputStream(DownloadService.get().open(url))) {
             ZipEntry entry;
             while ((entry = zis.getNextEntry()) != null) {
                 if ("mappings/mappings.tiny".equals(entry.getName()))
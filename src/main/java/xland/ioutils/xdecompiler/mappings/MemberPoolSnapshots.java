@@ -0,0 +1,109 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.mappings;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import xland.ioutils.xdecompiler.mcmeta.HashingUtil;
+import xland.ioutils.xdecompiler.util.FileUtils;
+import xland.ioutils.xdecompiler.util.LogUtils;
+import xland.ioutils.xdecompiler.util.PublicProperties;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * {@link ClassMemberInfoPool}s saved to disk, so that a later run over the same inputs maps the pool
+ * in constant time instead of building it again.
+ * <p>
+ * A snapshot is keyed by a fingerprint of whatever determines the classes the pool was built from.
+ * Snapshots are written to a temporary file first and then moved in place.
+ */
+public final class MemberPoolSnapshots {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private final Path dir;
+
+    private MemberPoolSnapshots(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return snapshots in {@link PublicProperties#memberPoolCacheDir()}, or {@code null} if they are disabled
+     */
+    public static @Nullable MemberPoolSnapshots create() {
+        final String dir = PublicProperties.memberPoolCacheDir();
+        return dir.isEmpty() ? null : new MemberPoolSnapshots(Path.of(dir));
+    }
+
+    private Path path(String fingerprint) {
+        final byte[] digest = HashingUtil.sha256().digest(fingerprint.getBytes(StandardCharsets.UTF_8));
+        return dir.resolve(HashingUtil.stringify(digest) + ".pool");
+    }
+
+    /**
+     * @return the pool saved under {@code fingerprint}, or {@code null} if there is no usable snapshot
+     */
+    public @Nullable ClassMemberInfoPool load(String fingerprint) {
+        final Path file = path(fingerprint);
+        try {
+            final ClassMemberInfoPool pool = ClassMemberInfoPoolImpl.map(file);
+            LOGGER.info("\tLoaded class member pool snapshot {}", file);
+            return pool;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Discarding unusable class member pool snapshot {}", file, e);
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Failures are logged and otherwise ignored, since snapshots are never required.
+     *
+     * @param pool a pool built by {@link ClassMemberInfoPool#builder()} or the factories in {@link ClassMemberInfoPool}
+     */
+    public void save(String fingerprint, ClassMemberInfoPool pool) {
+        if (!(pool instanceof ClassMemberInfoPoolImpl impl)) {
+            throw new IllegalArgumentException("Not a snapshottable pool: " + pool);
+        }
+
+        final Path target = path(fingerprint);
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+            Files.write(tmp, impl.bytes());
+            FileUtils.moveAtomically(tmp, target);
+            LOGGER.debug("Saved class member pool snapshot {}", target);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save class member pool snapshot {}", target, e);
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -26,13 +26,15 @@ import org.slf4j.Logger;
 import xland.ioutils.xdecompiler.mcmeta.ConcernedVersionDetail;
 import xland.ioutils.xdecompiler.mcmeta.RemoteFile;
 import xland.ioutils.xdecompiler.mcmeta.VersionManifest;
+import xland.ioutils.xdecompiler.util.ConcurrentUtils;
 import xland.ioutils.xdecompiler.util.DebugUtils;
 import xland.ioutils.xdecompiler.util.LogUtils;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class MojMapsMappingProvider implements MappingProvider {
     private static final Logger LOGGER = LogUtils.getLogger();
@@ -62,27 +64,33 @@ public class MojMapsMappingProvider implements MappingProvider {
             throw new FileNotFoundException("official mappings are absent for " + versionMeta.id());
         }
 
-        MemoryMappingTree tree = new MemoryMappingTree();
-        MappingVisitor visitor = tree;
-        visitor = MappingUtil.classMemberFilter(visitor, classMembers);
-        visitor = new MappingSourceNsSwitch(visitor, SOURCE_NAMESPACE);
+        // Read unfiltered first: the class member pool may not be ready yet, and we don't want
+        // to stall the connections while waiting for it
+        MemoryMappingTree unfiltered = new MemoryMappingTree();
+        MappingVisitor visitor = new MappingSourceNsSwitch(unfiltered, SOURCE_NAMESPACE);
 
         read(clientMappings, visitor);
         read(serverMappings, visitor);
+
+        MemoryMappingTree tree = new MemoryMappingTree();
+        unfiltered.accept(MappingUtil.classMemberFilter(tree, classMembers));
         return tree;
     }
 
     private static void read(RemoteFile mapping, MappingVisitor visitor) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(mapping.openFilteredInputStream()))) {
-            if (xland.ioutils.xdecompiler.util.DebugUtils.flagged(DebugUtils.DUMP_MAPPINGS)) {
-                var f = xland.ioutils.xdecompiler.util.TempDirs.get().createFile();
-                LOGGER.info("Writing mapping to {} due to debug flag {}", f, DebugUtils.DUMP_MAPPINGS);
-                try (var visitor0 = new net.fabricmc.mappingio.format.tiny.Tiny2FileWriter(java.nio.file.Files.newBufferedWriter(f), true)) {
-                    MappingVisitor visitor1 = visitor0;
-                    visitor1 = new MappingSourceNsSwitch(visitor1, SOURCE_NAMESPACE);
-                    ProGuardFileReader.read(reader, "mojmaps", SOURCE_NAMESPACE, visitor1);
-                }
+        // usually prefetched along with the jars; read the local copy, which is verified already
+        final Path path = ConcurrentUtils.joinUnwrapped(mapping.fetch());
+        if (xland.ioutils.xdecompiler.util.DebugUtils.flagged(DebugUtils.DUMP_MAPPINGS)) {
+            var f = xland.ioutils.xdecompiler.util.TempDirs.get().createFile();
+            LOGGER.info("Writing mapping to {} due to debug flag {}", f, DebugUtils.DUMP_MAPPINGS);
+            try (BufferedReader reader = Files.newBufferedReader(path);
+                 var visitor0 = new net.fabricmc.mappingio.format.tiny.Tiny2FileWriter(Files.newBufferedWriter(f), true)) {
+                MappingVisitor visitor1 = visitor0;
+                visitor1 = new MappingSourceNsSwitch(visitor1, SOURCE_NAMESPACE);
+                ProGuardFileReader.read(reader, "mojmaps", SOURCE_NAMESPACE, visitor1);
             }
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
             ProGuardFileReader.read(reader, "mojmaps", SOURCE_NAMESPACE, visitor);
         }
     }
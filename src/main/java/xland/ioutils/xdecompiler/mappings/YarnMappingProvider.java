@@ -28,6 +28,7 @@ import org.slf4j.Logger;
 import xland.ioutils.xdecompiler.mcmeta.VersionManifest;
 import xland.ioutils.xdecompiler.mcmeta.libraries.MavenArtifact;
 import xland.ioutils.xdecompiler.util.DebugUtils;
+import xland.ioutils.xdecompiler.util.DownloadService;
 import xland.ioutils.xdecompiler.util.LogUtils;
 import xland.ioutils.xdecompiler.util.PublicProperties;
 
@@ -61,7 +62,7 @@ public class YarnMappingProvider implements MappingProvider {
         }
 
         final String versionId = versionMeta.id();
-        Json meta = Json.read(URI.create("https://meta.fabricmc.net/v2/versions/yarn/" + versionId).toURL());
+        Json meta = Json.read(DownloadService.get().readString(URI.create("https://meta.fabricmc.net/v2/versions/yarn/" + versionId).toURL()));
         if (meta.asJsonList().isEmpty()) {
             LOGGER.warn("Missing yarn for version {}", versionId);
             return MappingUtil.emptyMappingTreeView();
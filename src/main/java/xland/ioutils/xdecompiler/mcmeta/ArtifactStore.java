@@ -0,0 +1,250 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.mcmeta;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import xland.ioutils.xdecompiler.util.FileUtils;
+import xland.ioutils.xdecompiler.util.LogUtils;
+import xland.ioutils.xdecompiler.util.PublicProperties;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Persistent store of downloaded {@link RemoteFile}s, addressed by their hash and shared by runs and processes.
+ * <p>
+ * Entries are downloaded and verified in full before they are moved in place, so an entry which exists is trusted
+ * without hashing it again. Processes sharing the directory take a file lock per bucket: a shared one to hand out
+ * an entry, and an exclusive one to download or evict it.
+ * Once the store grows beyond {@link PublicProperties#artifactStoreMaxMiB()}, the least recently used entries are evicted.
+ */
+final class ArtifactStore {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String LOCK_FILE = ".lock";
+
+    private static volatile ArtifactStore instance;
+    private static volatile boolean initialized;
+
+    private final Path root;
+    private final long maxBytes;
+    private final Map<String, ReentrantLock> bucketLocks = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private ArtifactStore(Path root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the store in {@link PublicProperties#artifactStoreDir()}, or {@code null} if it is disabled
+     */
+    static @Nullable ArtifactStore get() {
+        if (!initialized) {
+            synchronized (ArtifactStore.class) {
+                if (!initialized) {
+                    final String dir = PublicProperties.artifactStoreDir();
+                    final long maxMiB = PublicProperties.artifactStoreMaxMiB();
+                    instance = dir.isEmpty() ? null : new ArtifactStore(Path.of(dir), maxMiB < 0 ? Long.MAX_VALUE : maxMiB << 20);
+                    initialized = true;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private Path entry(RemoteFile file) {
+        final String hash = file.hash().toLowerCase(Locale.ROOT);
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static boolean isPresent(RemoteFile file, Path entry) throws IOException {
+        if (!Files.isRegularFile(entry)) return false;
+        return file.size() == null || Files.size(entry) == file.size();
+    }
+
+    /**
+     * Hands out {@code file} as {@code target}, downloading it into the store first unless it is there already.
+     * {@code target} is a hard link to the entry where possible, which survives its eviction. It must not be
+     * written to.
+     */
+    void copyTo(RemoteFile file, Path target) throws IOException, HashMismatchException {
+        final Path entry = entry(file);
+        final Path bucket = entry.getParent();
+        Files.createDirectories(bucket);
+
+        // evict() deletes entries only under the exclusive bucket lock, so a present entry stays until it is handed out
+        try (BucketLock _ = lockBucket(bucket, true, true)) {
+            if (isPresent(file, entry)) {
+                LOGGER.debug("Using stored {} for {}", entry, file.url());
+                touch(entry);
+                linkOut(entry, target);
+                return;
+            }
+        }
+
+        boolean stored = false;
+        try (BucketLock _ = lockBucket(bucket, false, true)) {
+            // another thread or process may have stored it while we were waiting
+            if (!isPresent(file, entry)) {
+                store(file, entry);
+                stored = true;
+            }
+            linkOut(entry, target);
+        }
+        if (stored) evict(entry);
+    }
+
+    private static void store(RemoteFile file, Path entry) throws IOException {
+        final Path download = entry.resolveSibling(entry.getFileName() + ".download");
+        // parts stay next to the entry, on the same file store, and are guarded by the bucket lock as well
+        file.downloadDirectly(download, entry.getParent());
+        FileUtils.moveAtomically(download, entry);
+    }
+
+    private static void linkOut(Path entry, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, entry);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // another file store, or one without hard links
+            LOGGER.debug("Cannot link {} to {}, copying it instead", target, entry, e);
+            Files.copy(entry, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Holds a bucket against the threads of this JVM, and shared or exclusively against other processes.
+     * The file lock goes away with its channel.
+     */
+    private record BucketLock(ReentrantLock lock, FileChannel channel) implements AutoCloseable {
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param wait whether to wait for the lock, rather than give up if the bucket is busy
+     * @return {@code null} if the bucket is busy and {@code wait} is unset
+     */
+    private @Nullable BucketLock lockBucket(Path bucket, boolean shared, boolean wait) throws IOException {
+        // file locks are held by the whole JVM and must not overlap, so threads of this one queue up here first
+        final ReentrantLock lock = bucketLocks.computeIfAbsent(bucket.getFileName().toString(), _ -> new ReentrantLock());
+        if (wait) {
+            lock.lock();
+        } else if (!lock.tryLock()) {
+            return null;
+        }
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(bucket.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final FileLock fileLock = wait ? channel.lock(0, Long.MAX_VALUE, shared) : channel.tryLock(0, Long.MAX_VALUE, shared);
+            if (fileLock != null) return new BucketLock(lock, channel);
+        } catch (IOException | RuntimeException e) {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            lock.unlock();
+            throw e;
+        }
+        channel.close();
+        lock.unlock();
+        return null;
+    }
+
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private record Entry(Path path, long size, FileTime lastUsed) {}
+
+    /**
+     * Deletes the least recently used entries but {@code keep} until the store fits its limit.
+     * Only one thread of all processes sharing the store evicts at a time; the others skip it.
+     */
+    private void evict(Path keep) {
+        if (maxBytes == Long.MAX_VALUE || !evicting.compareAndSet(false, true)) return;
+        try (FileChannel channel = FileChannel.open(root.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) return;
+
+            final List<Entry> entries = new ArrayList<>();
+            try (Stream<Path> buckets = Files.list(root)) {
+                for (Path bucket : (Iterable<Path>) buckets::iterator) {
+                    if (!Files.isDirectory(bucket)) continue;
+                    try (Stream<Path> files = Files.list(bucket)) {
+                        for (Path path : (Iterable<Path>) files::iterator) {
+                            // lock files and unfinished downloads
+                            if (path.getFileName().toString().indexOf('.') >= 0) continue;
+                            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                            if (attributes.isRegularFile()) entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime()));
+                        }
+                    }
+                }
+            }
+
+            long total = entries.stream().mapToLong(Entry::size).sum();
+            if (total <= maxBytes) return;
+            entries.sort(Comparator.comparing(Entry::lastUsed));
+            for (Entry entry : entries) {
+                if (total <= maxBytes) break;
+                if (entry.path().equals(keep)) continue;
+                // entries being handed out or stored are left alone
+                try (BucketLock bucketLock = lockBucket(entry.path().getParent(), false, false)) {
+                    if (bucketLock == null) continue;
+                    Files.deleteIfExists(entry.path());
+                    total -= entry.size();
+                    LOGGER.debug("Evicted {} from the artifact store", entry.path());
+                } catch (IOException e) {
+                    // most likely in use on a file system which does not allow that
+                    LOGGER.debug("Failed to evict {}", entry.path(), e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to evict old entries from the artifact store {}", root, e);
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
@@ -32,7 +32,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
 
 public record ConcernedVersionDetail(RemoteFile clientJar, RemoteFile serverJar,
                                      @Nullable RemoteFile clientMappings, @Nullable RemoteFile serverMappings,
@@ -99,13 +99,28 @@ public record ConcernedVersionDetail(RemoteFile clientJar, RemoteFile serverJar,
         return new ConcernedVersionDetail(clientJar, serverJar, clientMappings, serverMappings, libraries, isUnobfuscated);
     }
 
+    /**
+     * Starts {@linkplain RemoteFile#fetch() fetching} the jars and the official mappings in the background,
+     * so that each is already local, or on its way, by the time a stage asks for it.
+     */
+    public void prefetch() {
+        clientJar().fetch();
+        serverJar().fetch();
+        if (isUnobfuscated()) return;
+        if (clientMappings() != null) clientMappings().fetch();
+        if (serverMappings() != null) serverMappings().fetch();
+    }
+
+    /**
+     * @return paths of the libraries, in the order they are declared regardless of download completion
+     */
     public Collection<Path> downloadLibrariesAsync(Path repo) {
-        Collection<Path> paths = new CopyOnWriteArrayList<>();
-        ConcurrentUtils.runVirtual("download-libraries", service -> libraries().stream()
-                .map(lib -> CompletableFuture.supplyAsync(() -> lib.getOrDownload(repo), service))
-                .map(c -> c.thenAccept(paths::add))
+        final List<Library> libraries = libraries();
+        final Path[] paths = new Path[libraries.size()];
+        ConcurrentUtils.runVirtual("download-libraries", service -> IntStream.range(0, paths.length)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> paths[i] = libraries.get(i).getOrDownload(repo), service))
         );
-        return paths;
+        return List.of(paths);
     }
 
     private static boolean isLibraryExcluded(MavenArtifact artifact) {
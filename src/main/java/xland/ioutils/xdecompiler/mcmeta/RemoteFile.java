@@ -17,12 +17,17 @@ package xland.ioutils.xdecompiler.mcmeta;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
 import xland.ioutils.xdecompiler.util.DebugUtils;
+import xland.ioutils.xdecompiler.util.DownloadService;
+import xland.ioutils.xdecompiler.util.LogUtils;
+import xland.ioutils.xdecompiler.util.TempDirs;
 
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
@@ -31,9 +36,16 @@ import java.nio.file.Path;
 import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 public record RemoteFile(URL url, String hash, @Nullable Long size, Supplier<MessageDigest> mdFactory) {
+    // keyed by hash, since records built from different sources compare unequal by their digest factories
+    private static final Map<String, CompletableFuture<Path>> FETCHED = new ConcurrentHashMap<>();
+    private static final Logger LOGGER = LogUtils.getLogger();
+
     public static RemoteFile create(String url, String sha1) throws MalformedURLException {
         return new RemoteFile(URI.create(url).toURL(), sha1, null, HashingUtil::sha1);
     }
@@ -47,8 +59,46 @@ public record RemoteFile(URL url, String hash, @Nullable Long size, Supplier<Mes
     }
 
     public void download(OutputStream output) throws IOException, HashMismatchException {
-        try (InputStream is = url.openStream();
-             DigestOutputStream dos = new DigestOutputStream(output, mdFactory().get())) {
+        try (InputStream is = DownloadService.get().open(url)) {
+            transfer(is, output);
+        }
+    }
+
+    /**
+     * Copies the file from the {@linkplain ArtifactStore artifact store} if it is enabled, which downloads it first
+     * if needed.
+     * <p>
+     * Unlike {@link #download(OutputStream)}, picks up where the download broke off: large files are
+     * {@linkplain SegmentedDownload fetched in segments}, others retried as a whole.
+     */
+    public void download(Path path) throws IOException, HashMismatchException {
+        final ArtifactStore store = ArtifactStore.get();
+        if (store != null) {
+            store.copyTo(this, path);
+        } else {
+            downloadDirectly(path);
+        }
+    }
+
+    void downloadDirectly(Path path) throws IOException, HashMismatchException {
+        downloadDirectly(path, SegmentedDownload.defaultPartDir());
+    }
+
+    /**
+     * @param partDir where a segmented download keeps its parts
+     */
+    void downloadDirectly(Path path, Path partDir) throws IOException, HashMismatchException {
+        if (SegmentedDownload.download(this, path, partDir)) return;
+        DownloadService.get().read(url, is -> {
+            try (OutputStream output = Files.newOutputStream(path)) {
+                transfer(is, output);
+            }
+            return null;
+        });
+    }
+
+    private void transfer(InputStream is, OutputStream output) throws IOException, HashMismatchException {
+        try (DigestOutputStream dos = new DigestOutputStream(output, mdFactory().get())) {
             long realSize = is.transferTo(dos);
             if (size != null && size != realSize)
                 throw HashMismatchException.ofSize(url.toString(), size, realSize);
@@ -59,14 +109,35 @@ public record RemoteFile(URL url, String hash, @Nullable Long size, Supplier<Mes
         }
     }
 
-    public void download(Path path) throws IOException, HashMismatchException {
-        try (OutputStream output = Files.newOutputStream(path)) {
-            download(output);
-        }
+    /**
+     * Downloads this file to a temporary file once per run, no matter how often or by whom it is asked for.
+     * A failed download is logged and forgotten, so that the next call tries again.
+     *
+     * @return the verified local copy, on the default file system
+     */
+    public CompletableFuture<Path> fetch() {
+        final CompletableFuture<Path> future = new CompletableFuture<>();
+        final CompletableFuture<Path> existing = FETCHED.putIfAbsent(hash(), future);
+        if (existing != null) return existing;
+
+        // a thread of its own, which ends with the download, so there is no executor to shut down
+        Thread.ofVirtual().name("fetch-" + hash()).start(() -> {
+            try {
+                final Path path = TempDirs.get().createFileDefaultFs().toPath();
+                download(path);
+                future.complete(path);
+            } catch (Throwable t) {
+                // prefetches may fail with nobody joining them
+                LOGGER.warn("Failed to fetch {}", url, t);
+                FETCHED.remove(hash(), future);
+                future.completeExceptionally(t instanceof IOException e ? new UncheckedIOException("Failed to download " + url, e) : t);
+            }
+        });
+        return future;
     }
 
     public InputStream openFilteredInputStream() throws IOException {
-        DigestInputStream is = new DigestInputStream(url.openStream(), mdFactory().get());
+        DigestInputStream is = new DigestInputStream(DownloadService.get().open(url), mdFactory().get());
         if (!xland.ioutils.xdecompiler.util.DebugUtils.flagged(DebugUtils.REMOTE_FILE_CHECK_SIZE)) {
             return new FilterInputStream(is) {
                 @Override
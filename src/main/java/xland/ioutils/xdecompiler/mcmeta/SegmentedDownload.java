@@ -0,0 +1,292 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.mcmeta;
+
+import org.slf4j.Logger;
+import xland.ioutils.xdecompiler.util.ConcurrentUtils;
+import xland.ioutils.xdecompiler.util.DownloadService;
+import xland.ioutils.xdecompiler.util.FileUtils;
+import xland.ioutils.xdecompiler.util.LogUtils;
+import xland.ioutils.xdecompiler.util.PublicProperties;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Downloads a large {@link RemoteFile} as parallel range requests into {@code <hash>.part}, in a directory which
+ * outlives the run.
+ * <p>
+ * Completed segments are recorded in {@code <hash>.part.progress}, so that a download which was cut off,
+ * in this run or an earlier one, resumes from them. The whole file is checked against the hash before it is
+ * moved to the target. Only one thread of all processes works on a part at a time, holding a file lock on
+ * {@code <hash>.part.lock}; the others download in one piece meanwhile.
+ */
+final class SegmentedDownload {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Duration STALE_AFTER = Duration.ofDays(7);
+
+    private final RemoteFile file;
+    private final Path target, part, progress, lock;
+    private final long segmentSize;
+
+    private SegmentedDownload(RemoteFile file, Path target, Path partDir, long segmentSize) {
+        final String name = file.hash().toLowerCase(Locale.ROOT);
+        this.file = file;
+        this.target = target;
+        this.part = partDir.resolve(name + ".part");
+        this.progress = partDir.resolve(name + ".part.progress");
+        this.lock = partDir.resolve(name + ".part.lock");
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return where parts are kept unless the caller has a better place, {@link PublicProperties#downloadPartsDir()}
+     */
+    static Path defaultPartDir() {
+        return Path.of(PublicProperties.downloadPartsDir());
+    }
+
+    /**
+     * @param partDir where parts are kept, so that a later run finds them
+     * @return {@code false} if the file should rather be downloaded in one piece: it is small, segments are disabled,
+     * the server does not serve ranges, or it is being downloaded elsewhere already
+     */
+    static boolean download(RemoteFile file, Path target, Path partDir) throws IOException, HashMismatchException {
+        final long segmentSize = (long) PublicProperties.downloadSegmentMiB() << 20;
+        if (segmentSize <= 0) return false;
+        if (file.size() != null && file.size() <= segmentSize) return false;
+
+        Files.createDirectories(partDir);
+        deleteStale(partDir);
+        final SegmentedDownload download = new SegmentedDownload(file, target, partDir, segmentSize);
+        try (FileChannel channel = FileChannel.open(download.lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // the lock goes away with the channel
+            if (!tryLock(channel)) {
+                LOGGER.debug("{} is being downloaded in segments elsewhere, downloading it in one piece", file.url());
+                return false;
+            }
+            return download.run();
+        }
+    }
+
+    private static boolean tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            // held by another thread of this JVM
+            return false;
+        }
+    }
+
+    /**
+     * Deletes parts of downloads which were abandoned long ago. Active ones are written to, and their lock files are
+     * opened, far more often.
+     */
+    private static void deleteStale(Path partDir) {
+        final FileTime threshold = FileTime.from(Instant.now().minus(STALE_AFTER));
+        try (Stream<Path> files = Files.list(partDir)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                final String name = path.getFileName().toString();
+                if (!name.endsWith(".part") && !name.endsWith(".part.progress") && !name.endsWith(".part.lock")) continue;
+                try {
+                    if (Files.getLastModifiedTime(path).compareTo(threshold) < 0) Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to delete stale part {}", path, e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Failed to look for stale parts in {}", partDir, e);
+        }
+    }
+
+    private boolean run() throws IOException {
+        // refreshed, so that deleteStale leaves it alone
+        Files.setLastModifiedTime(lock, FileTime.from(Instant.now()));
+        final BitSet done = new BitSet();
+        long total = resume(done);
+
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (total < 0) {
+                channel.truncate(0);
+                total = probe(channel, done);
+                if (total < 0) {
+                    channel.close();
+                    Files.deleteIfExists(part);
+                    return false;
+                }
+                Files.writeString(progress, header(total) + '\n');
+                if (done.get(0)) markDone(0);
+            } else if (!done.isEmpty()) {
+                LOGGER.info("Resuming download of {} from {} completed segments", file.url(), done.cardinality());
+            }
+
+            final long length = total;
+            final int segments = (int) ((length + segmentSize - 1) / segmentSize);
+            final List<Integer> remaining = IntStream.range(0, segments).filter(i -> !done.get(i)).boxed().toList();
+            final List<Future<?>> futures;
+            try (ExecutorService executor = ConcurrentUtils.namedVirtualThreadExecutor("download-segments")) {
+                futures = remaining.stream().<Future<?>>map(i -> executor.submit(() -> {
+                    fetchSegment(channel, i, length);
+                    // data first, so that a recorded segment is never lost
+                    channel.force(false);
+                    markDone(i);
+                    return null;
+                })).toList();
+            }
+            await(futures);
+            channel.force(true);
+        }
+
+        verify();
+        FileUtils.moveAtomically(part, target);
+        Files.deleteIfExists(progress);
+        return true;
+    }
+
+    // every segment has finished by now; those which did are kept for a later attempt
+    private static void await(List<Future<?>> futures) throws IOException {
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                final IOException ex = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                if (failure == null) failure = ex;
+                else failure.addSuppressed(ex);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading");
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private String header(long total) {
+        return file.hash() + ' ' + total + ' ' + segmentSize;
+    }
+
+    /**
+     * @return length of the file if there is a download to resume, whose completed segments are then set in {@code done}
+     */
+    private long resume(BitSet done) throws IOException {
+        final String content;
+        try {
+            content = Files.readString(progress, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        // the last line may be cut off
+        final int end = content.lastIndexOf('\n');
+        final List<String> lines = end < 0 ? List.of() : content.substring(0, end).lines().toList();
+        if (lines.isEmpty() || !Files.exists(part)) return -1;
+
+        final String[] header = lines.getFirst().split(" ");
+        try {
+            final long total = Long.parseLong(header[1]);
+            if (header.length != 3 || !header[0].equals(file.hash()) || Long.parseLong(header[2]) != segmentSize) return -1;
+            lines.stream().skip(1).filter(s -> !s.isEmpty()).forEach(s -> {
+                try {
+                    done.set(Integer.parseInt(s));
+                } catch (NumberFormatException ignored) {
+                }
+            });
+            return total;
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    // asks for the first segment, which also tells whether ranges are served, and the length when the manifest does not
+    private long probe(FileChannel channel, BitSet done) throws IOException {
+        try (DownloadService.RangeBody range = DownloadService.get().openRange(file.url(), 0, segmentSize - 1)) {
+            if (range == null || range.totalLength() < 0) return -1;
+            final long expected = Math.min(segmentSize, range.totalLength());
+            if (write(channel, range.body(), 0) == expected) done.set(0);
+            return range.totalLength();
+        }
+    }
+
+    private void fetchSegment(FileChannel channel, int index, long total) throws IOException {
+        final long first = index * segmentSize;
+        final long last = Math.min(first + segmentSize, total) - 1;
+        DownloadService.get().readRange(file.url(), first, last, body -> {
+            final long written = write(channel, body, first);
+            if (written != last - first + 1) {
+                throw new IOException("Segment " + index + " of " + file.url() + " ended after " + written + " of " + (last - first + 1) + " bytes");
+            }
+            return null;
+        });
+    }
+
+    private static long write(FileChannel channel, InputStream body, long position) throws IOException {
+        final byte[] buf = new byte[BUFFER_SIZE];
+        long written = 0;
+        int n;
+        while ((n = body.read(buf)) >= 0) {
+            final ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+            while (bb.hasRemaining()) {
+                written += channel.write(bb, position + written);
+            }
+        }
+        return written;
+    }
+
+    private synchronized void markDone(int index) throws IOException {
+        Files.writeString(progress, index + "\n", StandardOpenOption.APPEND);
+    }
+
+    private void verify() throws IOException, HashMismatchException {
+        final MessageDigest md = file.mdFactory().get();
+        final long size;
+        try (InputStream is = new DigestInputStream(Files.newInputStream(part), md)) {
+            size = is.transferTo(OutputStream.nullOutputStream());
+        }
+        final byte[] digest = md.digest();
+        if ((file.size() == null || file.size() == size) && HashingUtil.isSame(file.hash(), digest)) return;
+
+        // nothing of it can be trusted any longer
+        Files.deleteIfExists(part);
+        Files.deleteIfExists(progress);
+        if (file.size() != null && file.size() != size) {
+            throw HashMismatchException.ofSize(file.url().toString(), file.size(), size);
+        }
+        throw HashMismatchException.of(file.url().toString(), file.hash(), HashingUtil.stringify(digest));
+    }
+}
@@ -19,6 +19,7 @@ import mjson.Json;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import xland.ioutils.xdecompiler.util.FileUtils;
+import xland.ioutils.xdecompiler.util.DownloadService;
 import xland.ioutils.xdecompiler.util.LogUtils;
 import xland.ioutils.xdecompiler.util.PublicProperties;
 import xland.ioutils.xdecompiler.util.TempDirs;
@@ -56,7 +57,7 @@ public final class VersionManifest {
                 if (instance == null) {
                     try {
                         URL url = URI.create(PublicProperties.versionManifestUrl()).toURL();
-                        instance = fromJson(Json.read(url));
+                        instance = fromJson(Json.read(DownloadService.get().readString(url)));
                     } catch (IOException e) {
                         throw new RuntimeException("Failed to get version manifest from " + PublicProperties.versionManifestUrl(), e);
                     }
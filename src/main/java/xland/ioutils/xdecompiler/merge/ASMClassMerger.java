@@ -23,18 +23,20 @@ import xland.ioutils.xdecompiler.util.CommonUtils;
 import xland.ioutils.xdecompiler.util.Merger;
 
 import java.util.*;
-import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.UnaryOperator;
 
+/**
+ * @param removeSnowmen see {@link SnowmanClassVisitor}
+ * @param offsetSyntheticParams see {@link SyntheticParameterClassVisitor}
+ */
 //@Deprecated
-public record ASMClassMerger(List<UnaryOperator<ClassVisitor>> postVisitors) implements ClassMerger {
+public record ASMClassMerger(boolean removeSnowmen, boolean offsetSyntheticParams) implements ClassMerger {
     private static final String SIDE_DESCRIPTOR = "Lnet/fabricmc/api/EnvType;";
     private static final String ITF_DESCRIPTOR = "Lnet/fabricmc/api/EnvironmentInterface;";
     private static final String ITF_LIST_DESCRIPTOR = "Lnet/fabricmc/api/EnvironmentInterfaces;";
-    private static final String SIDED_DESCRIPTOR = "Lnet/fabricmc/api/Environment;";
+    static final String SIDED_DESCRIPTOR = "Lnet/fabricmc/api/Environment;";
 
-    private static void visitSideAnnotation(AnnotationVisitor av, String side) {
+    static void visitSideAnnotation(AnnotationVisitor av, String side) {
         av.visitEnum("value", SIDE_DESCRIPTOR, side);
         av.visitEnd();
     }
@@ -48,6 +50,10 @@ public record ASMClassMerger(List<UnaryOperator<ClassVisitor>> postVisitors) imp
         }
     }
 
+    /**
+     * Marks a whole class with a side, for callers chaining their own visitors. The merger itself marks
+     * one-sided classes in {@link PostProcessClassVisitor}.
+     */
     public static class SidedClassVisitor extends ClassVisitor {
         private final String side;
 
@@ -64,40 +70,40 @@ public record ASMClassMerger(List<UnaryOperator<ClassVisitor>> postVisitors) imp
         }
     }
 
-    public ASMClassMerger {
-        postVisitors = List.copyOf(postVisitors);
-    }
+    public static final class Provider implements ClassMergerProvider {
+        @Override
+        public String id() {
+            return "asm";
+        }
 
-    private byte[] postVisit(ClassNode node) {
-        return postVisit(node::accept, this.postVisitors());
+        @Override
+        public ClassMerger create(boolean removeSnowmen, boolean offsetSyntheticParams) {
+            return new ASMClassMerger(removeSnowmen, offsetSyntheticParams);
+        }
     }
 
-    private byte[] postVisit(byte[] classFile) {
-        if (this.postVisitors().isEmpty()) return classFile;
-        return postVisit(classFile, this.postVisitors());
+    private boolean hasPostProcess() {
+        return removeSnowmen || offsetSyntheticParams;
     }
 
-    private byte[] postVisitSided(byte[] classFile, String side) {
-        Function<ClassVisitor, ClassVisitor> visitor = cv -> new SidedClassVisitor(Opcodes.ASM9, cv, side);
-
-        for (UnaryOperator<ClassVisitor> postVisitor : this.postVisitors()) {
-            visitor = visitor.andThen(postVisitor);
-        }
-        return postVisit(classFile, Collections.singleton(visitor::apply));
+    private ClassVisitor postProcessor(ClassWriter cw, boolean hasSnowmen, @Nullable String side) {
+        if (!hasPostProcess() && side == null) return cw;
+        return new PostProcessClassVisitor(cw, removeSnowmen, offsetSyntheticParams, hasSnowmen, side);
     }
 
-    private static byte[] postVisit(byte[] classFile, Iterable<UnaryOperator<ClassVisitor>> visitors) {
-        ClassReader cr = new ClassReader(classFile);
-        return postVisit(cv -> cr.accept(cv, 0), visitors);
+    private boolean hasSnowmen(ClassReader reader) {
+        return removeSnowmen && PostProcessClassVisitor.hasSnowmen(reader);
     }
 
-    private static byte[] postVisit(Consumer<ClassVisitor> acceptor, Iterable<UnaryOperator<ClassVisitor>> visitors) {
-        ClassWriter cw = new ClassWriter(0);
-        ClassVisitor cv = cw;
-        for (UnaryOperator<ClassVisitor> function : visitors) {
-            cv = function.apply(cv);
-        }
-        acceptor.accept(cv);
+    /**
+     * Rewrites a class in a single pass. The writer shares the constant pool of the reader, so methods left
+     * alone by the post-processor are copied instead of being decoded and encoded again.
+     */
+    private byte[] postVisit(byte[] classFile, @Nullable String side) {
+        if (!hasPostProcess() && side == null) return classFile;
+        ClassReader cr = new ClassReader(classFile);
+        ClassWriter cw = new ClassWriter(cr, 0);
+        cr.accept(postProcessor(cw, hasSnowmen(cr), side), 0);
         return cw.toByteArray();
     }
 
@@ -108,20 +114,21 @@ public record ASMClassMerger(List<UnaryOperator<ClassVisitor>> postVisitors) imp
                 throw new IllegalArgumentException("clientClass and serverClass cannot both be null");
             }
             // Identical classes, no need to merge
-            return this.postVisit(clientClass);
+            return this.postVisit(clientClass, null);
         }
 
-        if (clientClass == null) return this.postVisitSided(serverClass, "SERVER");
-        if (serverClass == null) return this.postVisitSided(clientClass, "CLIENT");
+        if (clientClass == null) return this.postVisit(serverClass, "SERVER");
+        if (serverClass == null) return this.postVisit(clientClass, "CLIENT");
 
         ClassReader readerC = new ClassReader(clientClass);
         ClassReader readerS = new ClassReader(serverClass);
 
+        // Only headers and member signatures are parsed here; method bodies are spliced in later
         ClassNode nodeC = new ClassNode(Opcodes.ASM9);
-        readerC.accept(nodeC, 0);
+        readerC.accept(nodeC, ClassReader.SKIP_CODE);
 
         ClassNode nodeS = new ClassNode(Opcodes.ASM9);
-        readerS.accept(nodeS, 0);
+        readerS.accept(nodeS, ClassReader.SKIP_CODE);
 
         ClassNode nodeOut = ClassNodeReflections.copy(nodeC);
         ClassNodeReflections.initLists(nodeC);
@@ -150,7 +157,7 @@ public record ASMClassMerger(List<UnaryOperator<ClassVisitor>> postVisitors) imp
                     AnnotationVisitor av = entry.visitAnnotation(SIDED_DESCRIPTOR, false);
                     visitSideAnnotation(av, side);
                 }))
-                .mergePreserveOrder(nodeC.fields, nodeS.fields, f -> f.name + ':' + f.desc);
+                .mergePreserveOrder(nodeC.fields, nodeS.fields, f -> f.name, f -> f.desc);
 
         // Methods
         nodeOut.methods = new ArrayList<>();
@@ -160,7 +167,7 @@ public record ASMClassMerger(List<UnaryOperator<ClassVisitor>> postVisitors) imp
                     AnnotationVisitor av = entry.visitAnnotation(SIDED_DESCRIPTOR, false);
                     visitSideAnnotation(av, side);
                 }))
-                .mergePreserveOrder(nodeC.methods, nodeS.methods, m -> m.name + m.desc);
+                .mergePreserveOrder(nodeC.methods, nodeS.methods, m -> m.name, m -> m.desc);
 
         // PermittedSubclasses
         nodeOut.permittedSubclasses = new ArrayList<>();
@@ -176,7 +183,7 @@ public record ASMClassMerger(List<UnaryOperator<ClassVisitor>> postVisitors) imp
         nodeOut.invisibleAnnotations = new ArrayList<>();
         nodeOut.visibleAnnotations = new ArrayList<>();
         nodeOut.invisibleTypeAnnotations = new ArrayList<>();
-        nodeOut.visibleAnnotations = new ArrayList<>();
+        nodeOut.visibleTypeAnnotations = new ArrayList<>();
 
         AnnotationKey.merge(nodeOut, nodeC, nodeS, c -> c.invisibleAnnotations);
         AnnotationKey.merge(nodeOut, nodeC, nodeS, c -> c.visibleAnnotations);
@@ -223,7 +230,219 @@ public record ASMClassMerger(List<UnaryOperator<ClassVisitor>> postVisitors) imp
             nodeOut.invisibleAnnotations.addLast(itfList);
         }
 
-        return this.postVisit(nodeOut);
+        return this.splice(readerC, readerS, nodeC, nodeS, nodeOut);
+    }
+
+    /**
+     * Writes {@code nodeOut}, while methods are taken from the original class files: those of the client are
+     * copied verbatim from {@code readerC}, and server-only ones are parsed from {@code readerS}, since their
+     * code refers to another constant pool.
+     */
+    private byte[] splice(ClassReader readerC, ClassReader readerS, ClassNode nodeC, ClassNode nodeS, ClassNode nodeOut) {
+        Set<MethodNode> clientMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+        clientMethods.addAll(nodeC.methods);
+        Set<MethodKey> serverKeys = new HashSet<>();
+        for (MethodNode m : nodeS.methods) serverKeys.add(MethodKey.of(m));
+
+        Map<MethodKey, MethodNode> serverOnlyMethods = new HashMap<>();
+        for (MethodNode m : nodeOut.methods) {
+            if (!clientMethods.contains(m)) serverOnlyMethods.put(MethodKey.of(m), null);
+        }
+        if (!serverOnlyMethods.isEmpty()) {
+            readerS.accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    final MethodKey key = new MethodKey(name, descriptor);
+                    if (!serverOnlyMethods.containsKey(key)) return null;
+                    MethodNode node = new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions);
+                    serverOnlyMethods.put(key, node);
+                    return node;
+                }
+            }, 0);
+            for (MethodNode m : serverOnlyMethods.values()) {
+                visitSideAnnotation(m.visitAnnotation(SIDED_DESCRIPTOR, false), "SERVER");
+            }
+        }
+
+        // Sharing the client constant pool lets the writer copy method_info structures as they are
+        ClassWriter cw = new ClassWriter(readerC, 0);
+        // server-only methods pass the post-processor too
+        ClassVisitor cv = postProcessor(cw, hasSnowmen(readerC) || !serverOnlyMethods.isEmpty() && hasSnowmen(readerS), null);
+        readerC.accept(new SplicingClassVisitor(cv, nodeOut, clientMethods, serverKeys, serverOnlyMethods), 0);
+        return cw.toByteArray();
+    }
+
+    /**
+     * Visited by the client class. Anything but methods is replaced by the merged node.
+     */
+    private static final class SplicingClassVisitor extends ClassVisitor {
+        private final ClassNode merged;
+        private final Set<MethodNode> clientMethods;
+        private final Set<MethodKey> serverKeys;
+        private final Map<MethodKey, MethodNode> serverOnlyMethods;
+        private int nextMethod;
+        private boolean bodyVisited;
+
+        SplicingClassVisitor(ClassVisitor cv, ClassNode merged, Set<MethodNode> clientMethods,
+                             Set<MethodKey> serverKeys, Map<MethodKey, MethodNode> serverOnlyMethods) {
+            super(Opcodes.ASM9, cv);
+            this.merged = merged;
+            this.clientMethods = clientMethods;
+            this.serverKeys = serverKeys;
+            this.serverOnlyMethods = serverOnlyMethods;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            super.visit(version, access, name, signature, superName, merged.interfaces.toArray(new String[0]));
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+        }
+
+        @Override
+        public void visitNestMember(String nestMember) {
+        }
+
+        @Override
+        public void visitPermittedSubclass(String permittedSubclass) {
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+            return null;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            return null;
+        }
+
+        // In the order of ClassNode.accept
+        private void visitBody() {
+            if (bodyVisited) return;
+            bodyVisited = true;
+
+            final ClassVisitor cv = this.cv;
+            for (AnnotationNode a : merged.visibleAnnotations) a.accept(cv.visitAnnotation(a.desc, true));
+            for (AnnotationNode a : merged.invisibleAnnotations) a.accept(cv.visitAnnotation(a.desc, false));
+            for (TypeAnnotationNode a : merged.visibleTypeAnnotations)
+                a.accept(cv.visitTypeAnnotation(a.typeRef, a.typePath, a.desc, true));
+            for (TypeAnnotationNode a : merged.invisibleTypeAnnotations)
+                a.accept(cv.visitTypeAnnotation(a.typeRef, a.typePath, a.desc, false));
+            for (Attribute attribute : merged.attrs) cv.visitAttribute(attribute);
+            for (String nestMember : merged.nestMembers) cv.visitNestMember(nestMember);
+            for (String subclass : merged.permittedSubclasses) cv.visitPermittedSubclass(subclass);
+            for (InnerClassNode innerClass : merged.innerClasses) innerClass.accept(cv);
+            for (RecordComponentNode recordComponent : merged.recordComponents) recordComponent.accept(cv);
+            for (FieldNode field : merged.fields) field.accept(cv);
+        }
+
+        private void visitPendingServerMethods() {
+            while (nextMethod < merged.methods.size() && !clientMethods.contains(merged.methods.get(nextMethod))) {
+                final MethodNode m = merged.methods.get(nextMethod++);
+                serverOnlyMethods.get(MethodKey.of(m)).accept(cv);
+            }
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            visitBody();
+            // Client methods come in the same order as in the merged list, server-only ones are in between
+            visitPendingServerMethods();
+            nextMethod++;
+
+            final MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (mv == null || serverKeys.contains(new MethodKey(name, descriptor))) {
+                // Unwrapped, so that the writer can copy the method if nothing downstream changes it
+                return mv;
+            }
+            return new SidedMethodVisitor(mv, "CLIENT");
+        }
+
+        @Override
+        public void visitEnd() {
+            visitBody();
+            visitPendingServerMethods();
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Appends the side annotation after all other (invisible) annotations, like the merged node would.
+     */
+    private static final class SidedMethodVisitor extends MethodVisitor {
+        private final String side;
+        private boolean marked;
+
+        SidedMethodVisitor(MethodVisitor mv, String side) {
+            super(Opcodes.ASM9, mv);
+            this.side = side;
+        }
+
+        private void mark() {
+            if (marked) return;
+            marked = true;
+            visitSideAnnotation(super.visitAnnotation(SIDED_DESCRIPTOR, false), side);
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+            mark();
+            return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+        }
+
+        @Override
+        public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+            mark();
+            super.visitAnnotableParameterCount(parameterCount, visible);
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+            mark();
+            return super.visitParameterAnnotation(parameter, descriptor, visible);
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            mark();
+            super.visitAttribute(attribute);
+        }
+
+        @Override
+        public void visitCode() {
+            mark();
+            super.visitCode();
+        }
+
+        @Override
+        public void visitEnd() {
+            mark();
+            super.visitEnd();
+        }
+    }
+
+    // compared by its parts, rather than concatenating name and descriptor for every lookup
+    private record MethodKey(String name, String desc) {
+        static MethodKey of(MethodNode m) {
+            return new MethodKey(m.name, m.desc);
+        }
     }
 
     private record AnnotationKey(int typeRef, String typePathString, String annotationType) {
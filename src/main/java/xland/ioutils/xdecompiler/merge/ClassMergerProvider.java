@@ -0,0 +1,44 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.merge;
+
+import xland.ioutils.xdecompiler.util.Identified;
+import xland.ioutils.xdecompiler.util.PublicProperties;
+import xland.ioutils.xdecompiler.util.ServiceProviders;
+
+import java.util.Map;
+
+/**
+ * Engines that {@link JarMerger} can merge classes with, selected by {@link PublicProperties#mergeEngine()}.
+ */
+public interface ClassMergerProvider extends Identified {
+    String id();
+
+    /**
+     * @param removeSnowmen see {@link SnowmanClassVisitor}
+     * @param offsetSyntheticParams see {@link SyntheticParameterClassVisitor}
+     */
+    ClassMerger create(boolean removeSnowmen, boolean offsetSyntheticParams);
+
+    static ClassMergerProvider get(String id) {
+        final Map<String, ClassMergerProvider> providers = ServiceProviders.identified(ClassMergerProvider.class);
+        final ClassMergerProvider provider = providers.get(id);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown merge engine: " + id + ". Available engines are: " + providers.keySet());
+        }
+        return provider;
+    }
+}
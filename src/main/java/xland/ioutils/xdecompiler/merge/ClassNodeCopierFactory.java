@@ -0,0 +1,153 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.merge;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessFlag;
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * Generates a {@link ClassNodeReflections.Copier} as a hidden class, which reads and writes each public field
+ * of {@link ClassNode} directly, instead of going through a {@link java.lang.invoke.VarHandle} per field.
+ */
+final class ClassNodeCopierFactory {
+    private static final ClassDesc CD_ClassNode = desc(ClassNode.class);
+    private static final ClassDesc CD_Copier = desc(ClassNodeReflections.Copier.class);
+    private static final ClassDesc CD_ClassNodeReflections = desc(ClassNodeReflections.class);
+    private static final ClassDesc CD_ArrayList = desc(java.util.ArrayList.class);
+
+    private static final MethodTypeDesc MTD_copy = MethodTypeDesc.of(CD_ClassNode, CD_ClassNode);
+    private static final MethodTypeDesc MTD_initLists = MethodTypeDesc.of(ConstantDescs.CD_void, CD_ClassNode);
+    private static final MethodTypeDesc MTD_copyList = MethodTypeDesc.of(ConstantDescs.CD_List, ConstantDescs.CD_List);
+
+    // copy(ClassNode) / initLists(ClassNode)
+    private static final int SLOT_NODE = 1, SLOT_COPY = 2, SLOT_VALUE = 3;
+
+    private static ClassDesc desc(Class<?> c) {
+        return c.describeConstable().orElseThrow();
+    }
+
+    /**
+     * @param lookup a lookup of a class in this package, where the copier is defined
+     */
+    static ClassNodeReflections.Copier create(MethodHandles.Lookup lookup, List<Field> fields) throws ReflectiveOperationException {
+        final ClassDesc self = ClassDesc.of(lookup.lookupClass().getPackageName(), "ClassNodeCopier");
+        final byte[] bytes = createClass(self, fields);
+        final Class<?> c = lookup.defineHiddenClass(bytes, true).lookupClass();
+        return (ClassNodeReflections.Copier) c.getDeclaredConstructor().newInstance();
+    }
+
+    private static byte[] createClass(ClassDesc self, List<Field> fields) {
+        final ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+                ClassHierarchyResolver.defaultResolver().orElse(ClassHierarchyResolver.ofClassLoading(ClassNode.class.getClassLoader()))
+        ));
+        return classFile.build(self, cb -> cb
+                .withFlags(AccessFlag.FINAL, AccessFlag.SYNTHETIC, AccessFlag.SUPER)
+                .withVersion(ClassFile.JAVA_25_VERSION, 0)
+                .withInterfaceSymbols(CD_Copier)
+                .withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_PUBLIC, code -> code
+                        .aload(0)
+                        .invokespecial(ConstantDescs.CD_Object, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                        .return_()
+                )
+                .withMethodBody("copy", MTD_copy, ClassFile.ACC_PUBLIC, code -> {
+                    code
+                            .new_(CD_ClassNode)
+                            .dup()
+                            .loadConstant(Opcodes.ASM9)
+                            .invokespecial(CD_ClassNode, ConstantDescs.INIT_NAME, MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_int))
+                            .astore(SLOT_COPY);
+                    for (Field field : fields) {
+                        copyField(code, field);
+                    }
+                    code
+                            .aload(SLOT_COPY)
+                            .areturn();
+                })
+                .withMethodBody("initLists", MTD_initLists, ClassFile.ACC_PUBLIC, code -> {
+                    for (Field field : fields) {
+                        if (ClassNodeReflections.isList(field)) initList(code, field);
+                    }
+                    code.return_();
+                })
+        );
+    }
+
+    // Same as the reflective copier: lists are copied, and nulls keep the defaults of the new node
+    private static void copyField(CodeBuilder code, Field field) {
+        final String name = field.getName();
+        final ClassDesc type = desc(field.getType());
+
+        if (field.getType().isPrimitive()) {
+            code
+                    .aload(SLOT_COPY)
+                    .aload(SLOT_NODE)
+                    .getfield(CD_ClassNode, name, type)
+                    .putfield(CD_ClassNode, name, type);
+        } else if (ClassNodeReflections.isList(field)) {
+            code
+                    .aload(SLOT_COPY)
+                    .aload(SLOT_NODE)
+                    .getfield(CD_ClassNode, name, type)
+                    .invokestatic(CD_ClassNodeReflections, "copyList", MTD_copyList);
+            if (!type.equals(ConstantDescs.CD_List)) code.checkcast(type);
+            code.putfield(CD_ClassNode, name, type);
+        } else {
+            final Label skip = code.newLabel();
+            code
+                    .aload(SLOT_NODE)
+                    .getfield(CD_ClassNode, name, type)
+                    .astore(SLOT_VALUE)
+                    .aload(SLOT_VALUE)
+                    .ifnull(skip)
+                    .aload(SLOT_COPY)
+                    .aload(SLOT_VALUE)
+                    .putfield(CD_ClassNode, name, type)
+                    .labelBinding(skip);
+        }
+    }
+
+    private static void initList(CodeBuilder code, Field field) {
+        final String name = field.getName();
+        final ClassDesc type = desc(field.getType());
+        final Label skip = code.newLabel();
+        code
+                .aload(SLOT_NODE)
+                .getfield(CD_ClassNode, name, type)
+                .ifnonnull(skip)
+                .aload(SLOT_NODE)
+                .new_(CD_ArrayList)
+                .dup()
+                .invokespecial(CD_ArrayList, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void);
+        if (!type.equals(ConstantDescs.CD_List)) code.checkcast(type);
+        code
+                .putfield(CD_ClassNode, name, type)
+                .labelBinding(skip);
+    }
+
+    private ClassNodeCopierFactory() {}
+}
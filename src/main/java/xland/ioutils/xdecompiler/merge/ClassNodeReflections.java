@@ -15,11 +15,15 @@
  */
 package xland.ioutils.xdecompiler.merge;
 
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
+import org.slf4j.Logger;
+import xland.ioutils.xdecompiler.util.LogUtils;
 
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -27,41 +31,79 @@ import java.util.Collection;
 import java.util.List;
 
 final class ClassNodeReflections {
+    private static final Logger LOGGER = LogUtils.getLogger();
     private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
-    private static final Collection<VarHandle> PUBLIC_FIELDS =
+    // looked up at runtime, so that fields added by newer ASM versions are copied as well
+    static final List<Field> PUBLIC_FIELDS =
             Arrays.stream(ClassNode.class.getFields())
                     .filter(f -> !Modifier.isStatic(f.getModifiers()))
-                    .map(f -> {
-                        try {
-                            return LOOKUP.unreflectVarHandle(f);
-                        } catch (IllegalAccessException e) {
-                            throw new ExceptionInInitializerError(e);
-                        }
-                    })
                     .toList();
+    private static final Copier COPIER = createCopier();
+
+    interface Copier {
+        ClassNode copy(ClassNode node);
+
+        void initLists(ClassNode node);
+    }
 
     static ClassNode copy(ClassNode node) {
-        ClassNode copy = new ClassNode(Opcodes.ASM9);
-        for (VarHandle varHandle : PUBLIC_FIELDS) {
-            Object o = varHandle.get(node);
-            if (List.class.isAssignableFrom(varHandle.varType())) {
-                if (o != null) {
-                    o = new ArrayList<>((Collection<?>) o);
-                } else {
-                    o = new ArrayList<>();
-                }
-            }
+        return COPIER.copy(node);
+    }
+
+    static void initLists(ClassNode node) {
+        COPIER.initLists(node);
+    }
+
+    static boolean isList(Field field) {
+        return List.class.isAssignableFrom(field.getType());
+    }
 
-            if (o == null) continue;
-            varHandle.set(copy, o);
+    // Called by the generated copier
+    static List<?> copyList(@Nullable List<?> list) {
+        return list != null ? new ArrayList<>(list) : new ArrayList<>();
+    }
+
+    private static Copier createCopier() {
+        try {
+            return ClassNodeCopierFactory.create(LOOKUP, PUBLIC_FIELDS);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            LOGGER.warn("Failed to generate ClassNode copier, falling back to reflection", e);
+            return new ReflectiveCopier();
         }
-        return copy;
     }
 
-    static void initLists(ClassNode node) {
-        for (VarHandle varHandle : PUBLIC_FIELDS) {
-            if (!List.class.isAssignableFrom(varHandle.varType())) continue;
-            varHandle.compareAndSet(node, null, new ArrayList<>());
+    private static final class ReflectiveCopier implements Copier {
+        private final Collection<VarHandle> fields = PUBLIC_FIELDS.stream()
+                .map(f -> {
+                    try {
+                        return LOOKUP.unreflectVarHandle(f);
+                    } catch (IllegalAccessException e) {
+                        throw new ExceptionInInitializerError(e);
+                    }
+                })
+                .toList();
+
+        @Override
+        public ClassNode copy(ClassNode node) {
+            ClassNode copy = new ClassNode(Opcodes.ASM9);
+            for (VarHandle varHandle : fields) {
+                Object o = varHandle.get(node);
+                if (List.class.isAssignableFrom(varHandle.varType())) {
+                    o = copyList((List<?>) o);
+                }
+
+                if (o == null) continue;
+                varHandle.set(copy, o);
+            }
+            return copy;
+        }
+
+        @Override
+        public void initLists(ClassNode node) {
+            for (VarHandle varHandle : fields) {
+                if (!List.class.isAssignableFrom(varHandle.varType())) continue;
+                varHandle.compareAndSet(node, null, new ArrayList<>());
+            }
         }
     }
 
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.merge;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import xland.ioutils.xdecompiler.util.LogUtils;
+import xland.ioutils.xdecompiler.util.PublicProperties;
+import xland.ioutils.xdecompiler.util.TempDirs;
+import xland.ioutils.xdecompiler.util.zip.ZipArchive;
+import xland.ioutils.xdecompiler.util.zip.ZipArchiveWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Uncompressed output of {@link JarMerger}, handed to later stages without a round trip through a jar.
+ * <p>
+ * Entries may be put concurrently. A jar is only written once some consumer needs a file path.
+ * Contents either stay on the heap, or are copied off-heap, spilling to a mapped scratch file
+ * once an in-memory budget is used up.
+ * <p>
+ * Entries {@linkplain #copyRaw copied} from an input jar stay deflated. They are inflated only if read
+ * through this store, and go to the materialized jar as they are.
+ */
+public final class ClassStore {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private final Map<String, Data> entries = new ConcurrentHashMap<>();
+    private final @Nullable OffHeap offHeap;
+    private volatile @Nullable Path materialized;
+
+    private ClassStore(@Nullable OffHeap offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public static ClassStore heap() {
+        return new ClassStore(null);
+    }
+
+    /**
+     * @param budget bytes to keep in memory before spilling to disk, or negative for no limit
+     */
+    public static ClassStore offHeap(long budget) {
+        return new ClassStore(new OffHeap(budget));
+    }
+
+    /**
+     * @see PublicProperties#classStore()
+     */
+    public static ClassStore create() {
+        return switch (PublicProperties.classStore()) {
+            case "heap" -> heap();
+            case "offheap" -> {
+                final long budgetMiB = PublicProperties.classStoreBudgetMiB();
+                yield offHeap(budgetMiB < 0 ? -1 : budgetMiB << 20);
+            }
+            default -> throw new IllegalArgumentException("Unknown class store: " + PublicProperties.classStore());
+        };
+    }
+
+    /**
+     * @param data not modified afterward, if kept on the heap
+     */
+    public void put(String name, byte[] data) {
+        final MemorySegment segment = MemorySegment.ofArray(data);
+        put(name, new Data(offHeap != null ? offHeap.copy(segment) : segment, ZipEntry.STORED, -1, data.length));
+    }
+
+    /**
+     * Copies an entry of {@code source} as it is stored there, without inflating it.
+     * The copy does not depend on {@code source} staying open.
+     */
+    public void copyRaw(ZipArchive source, ZipArchive.Entry entry) throws IOException {
+        if (entry.method() != ZipEntry.STORED && entry.method() != ZipEntry.DEFLATED)
+            throw new ZipException("Unsupported compression method " + entry.method() + " of " + entry.name());
+        final MemorySegment raw = source.rawSegment(entry);
+        final MemorySegment copy = offHeap != null ? offHeap.copy(raw) : MemorySegment.ofArray(raw.toArray(ValueLayout.JAVA_BYTE));
+        put(entry.name(), new Data(copy, entry.method(), entry.crc(), entry.size()));
+    }
+
+    private void put(String name, Data data) {
+        if (materialized != null) throw new IllegalStateException("Store is already materialized");
+        entries.put(name, data);
+    }
+
+    /**
+     * @return a read-only view of the entry, which is not copied unless it has to be inflated
+     */
+    public @Nullable MemorySegment segment(String name) {
+        final Data data = entries.get(name);
+        if (data == null) return null;
+        return data.method() == ZipEntry.STORED ? data.segment().asReadOnly() : MemorySegment.ofArray(inflate(name, data)).asReadOnly();
+    }
+
+    public byte @Nullable [] get(String name) {
+        final Data data = entries.get(name);
+        return data == null ? null : toArray(name, data);
+    }
+
+    private static byte[] toArray(String name, Data data) {
+        if (data.method() != ZipEntry.STORED) return inflate(name, data);
+        final MemorySegment segment = data.segment();
+        if (segment.heapBase().orElse(null) instanceof byte[] array && array.length == segment.byteSize())
+            return array;
+        return segment.toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    private static byte[] inflate(String name, Data data) {
+        try {
+            return ZipArchive.inflate(data.segment(), data.size(), name);
+        } catch (ZipException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return all entry names, sorted
+     */
+    public List<String> names() {
+        return entries.keySet().stream().sorted().toList();
+    }
+
+    /**
+     * @return contents of all {@code .class} entries, in no particular order. Off-heap and deflated entries are
+     * copied to the heap one at a time, since ASM only reads arrays.
+     */
+    public Iterable<byte[]> classes() {
+        return () -> entries.entrySet().stream()
+                .filter(e -> e.getKey().endsWith(".class"))
+                .map(e -> toArray(e.getKey(), e.getValue()))
+                .iterator();
+    }
+
+    /**
+     * Writes the entries as a jar without compression, which is cheap to read back. Entries copied still deflated
+     * are written as they are, rather than inflated here. Subsequent calls return the same file.
+     */
+    public Path materialize() throws IOException {
+        Path path = materialized;
+        if (path != null) return path;
+
+        synchronized (this) {
+            if ((path = materialized) != null) return path;
+
+            path = TempDirs.get().createFile(".jar");
+            try (ZipArchiveWriter writer = ZipArchiveWriter.create(path, 1)) {
+                for (String name : names()) {
+                    final Data data = entries.get(name);
+                    if (data.method() == ZipEntry.STORED) {
+                        writer.writeStored(name, data.segment());
+                    } else {
+                        writer.writeRaw(name, data.method(), data.crc(), data.size(), data.segment());
+                    }
+                }
+            }
+            LOGGER.debug("Materialized {} entries to {}", entries.size(), path);
+            return materialized = path;
+        }
+    }
+
+    /**
+     * @param method {@link ZipEntry#STORED}, or {@link ZipEntry#DEFLATED} for entries copied raw
+     * @param crc only known for deflated entries
+     * @param size the uncompressed size
+     */
+    private record Data(MemorySegment segment, int method, long crc, long size) {}
+
+    /**
+     * Memory is owned by automatic arenas, released once the store is unreachable.
+     */
+    private static final class OffHeap {
+        private static final long SPILL_REGION = 64L << 20;
+
+        private final Arena arena = Arena.ofAuto();
+        private final long budget;
+        private final AtomicLong inMemory = new AtomicLong();
+
+        // guarded by this
+        private @Nullable Path spillFile;
+        private MemorySegment spillRegion = MemorySegment.NULL;
+        private long spillRegionUsed, spillFileSize;
+
+        OffHeap(long budget) {
+            this.budget = budget;
+        }
+
+        MemorySegment copy(MemorySegment data) {
+            final long length = data.byteSize();
+            MemorySegment segment;
+            if (budget < 0 || inMemory.addAndGet(length) <= budget) {
+                segment = arena.allocate(length);
+            } else {
+                inMemory.addAndGet(-length);
+                segment = spill(length);
+            }
+            MemorySegment.copy(data, 0, segment, 0, length);
+            return segment;
+        }
+
+        private synchronized MemorySegment spill(long length) {
+            try {
+                if (spillRegion.byteSize() - spillRegionUsed < length) {
+                    if (spillFile == null) {
+                        spillFile = TempDirs.get().createFile(".spill");
+                        LOGGER.info("Class store exceeded its budget of {} MiB, spilling to {}", budget >> 20, spillFile);
+                    }
+                    final long regionSize = Math.max(SPILL_REGION, length);
+                    try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        // the mapping outlives the channel
+                        spillRegion = channel.map(FileChannel.MapMode.READ_WRITE, spillFileSize, regionSize, Arena.ofAuto());
+                    }
+                    spillFileSize += regionSize;
+                    spillRegionUsed = 0;
+                }
+                final MemorySegment segment = spillRegion.asSlice(spillRegionUsed, length);
+                spillRegionUsed += length;
+                return segment;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to spill class store", e);
+            }
+        }
+    }
+}
@@ -15,51 +15,107 @@
  */
 package xland.ioutils.xdecompiler.merge;
 
+import org.slf4j.Logger;
+import xland.ioutils.xdecompiler.mcmeta.HashMismatchException;
+import xland.ioutils.xdecompiler.mcmeta.HashingUtil;
+import xland.ioutils.xdecompiler.util.FileUtils;
 import xland.ioutils.xdecompiler.util.LogUtils;
+import xland.ioutils.xdecompiler.util.zip.ZipArchive;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.function.Predicate;
 
+/**
+ * Reads bundled server jars (1.18 and later), which ship the actual server jar under {@code META-INF/versions}
+ * and its libraries under {@code META-INF/libraries}, each listed with its SHA-256.
+ */
 public final class ExtractBundler {
-    public static void run(JarFile bundlerJar, Path outputFile) throws IOException {
-        List<FileEntry> entries;
-        final JarEntry jarEntry = bundlerJar.getJarEntry("META-INF/versions.list");
-        if (jarEntry == null)
-            throw new IllegalStateException("Resource META-INF/versions.list not found");
-        try (InputStream is = bundlerJar.getInputStream(jarEntry)) {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            entries = reader.lines().filter(s -> !s.isBlank()).map(FileEntry::parseLine).toList();
-        }
-        if (entries.size() != 1) {
-            throw new IllegalStateException("Multiple versions found: " + entries);
-        }
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String BUNDLER_MAIN = "net/minecraft/bundler/Main.class";
 
-        checkAndExtractJar(bundlerJar, entries.getFirst(), outputFile);
+    public static boolean isBundler(ZipArchive archive) {
+        return archive.get(BUNDLER_MAIN) != null;
     }
 
-    private static void checkAndExtractJar(JarFile jarFile, FileEntry entry, Path outputFile) throws IOException {
-        LogUtils.getLogger().info("Unpacking {} ({}:{}) to {}", entry.path, "versions", entry.id, outputFile);
-        extractJar(jarFile, entry.path, outputFile);
+    /**
+     * Opens the server jar in the bundle in place, after checking its hash.
+     * The returned archive takes {@code bundler} over, see {@link ZipArchive#openNested}; it is closed on failure.
+     */
+    public static ZipArchive openServer(ZipArchive bundler) throws IOException {
+        final FileEntry entry;
+        final ZipArchive nested;
+        try {
+            final List<FileEntry> entries = readList(bundler, "versions");
+            if (entries.size() != 1) {
+                throw new IllegalStateException("Multiple versions found: " + entries);
+            }
+            entry = entries.getFirst();
+            LOGGER.info("Opening bundled {} ({}:{})", entry.path, "versions", entry.id);
+            nested = bundler.openNested(entry.find(bundler, "versions"));
+        } catch (IOException | RuntimeException e) {
+            bundler.close();
+            throw e;
+        }
+        final MessageDigest md = HashingUtil.sha256();
+        md.update(nested.segment().asByteBuffer());
+        final byte[] digest = md.digest();
+        if (!HashingUtil.isSame(entry.hash, digest)) {
+            nested.close();
+            throw new IOException("Bundled server jar is corrupted",
+                    HashMismatchException.of(entry.path, entry.hash, HashingUtil.stringify(digest)));
+        }
+        return nested;
     }
 
-    private static void extractJar(JarFile jarFile, String jarPath, Path outputFile) throws IOException {
-        Files.createDirectories(outputFile.getParent());
+    /**
+     * Copies the bundled libraries which {@code wanted} accepts into the maven layout of {@code repo},
+     * unless they are there already. Each one is checked against its hash before it is moved in place.
+     *
+     * @param wanted tests paths in the maven layout
+     * @return count of libraries copied
+     */
+    public static int seedLibraries(ZipArchive bundler, Path repo, Predicate<String> wanted) throws IOException {
+        if (bundler.get("META-INF/libraries.list") == null) return 0;
+
+        int count = 0;
+        for (FileEntry entry : readList(bundler, "libraries")) {
+            final Path target = repo.resolve(entry.path);
+            if (!wanted.test(entry.path) || Files.exists(target)) continue;
 
-        final JarEntry jarEntry = jarFile.getJarEntry("META-INF/versions/" + jarPath);
-        if (jarEntry == null)
-            throw new IllegalStateException("Declared library " + jarPath + " not found");
-        try (InputStream input = jarFile.getInputStream(jarEntry)) {
-            Files.copy(input, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            final byte[] bytes = bundler.read(entry.find(bundler, "libraries"));
+            final byte[] digest = HashingUtil.sha256().digest(bytes);
+            if (!HashingUtil.isSame(entry.hash, digest)) {
+                // leave it to the download
+                LOGGER.warn("Skipping bundled library {}", entry.id, HashMismatchException.of(entry.path, entry.hash, HashingUtil.stringify(digest)));
+                continue;
+            }
+
+            Files.createDirectories(target.getParent());
+            final Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                Files.write(tmp, bytes);
+                FileUtils.moveAtomically(tmp, target);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            count++;
         }
+        return count;
+    }
+
+    private static List<FileEntry> readList(ZipArchive bundler, String kind) throws IOException {
+        final ZipArchive.Entry listEntry = bundler.get("META-INF/" + kind + ".list");
+        if (listEntry == null)
+            throw new IllegalStateException("Resource META-INF/" + kind + ".list not found");
+        return new String(bundler.read(listEntry), StandardCharsets.UTF_8).lines()
+                .filter(s -> !s.isBlank())
+                .map(FileEntry::parseLine)
+                .toList();
     }
 
     private record FileEntry(String hash, String id, String path) {
@@ -70,6 +126,13 @@ public final class ExtractBundler {
             }
             return new FileEntry(fields[0], fields[1], fields[2]);
         }
+
+        ZipArchive.Entry find(ZipArchive bundler, String kind) {
+            final ZipArchive.Entry entry = bundler.get("META-INF/" + kind + "/" + path);
+            if (entry == null)
+                throw new IllegalStateException("Declared library " + path + " not found");
+            return entry;
+        }
     }
 
     private ExtractBundler() {}
@@ -15,182 +15,270 @@
  */
 package xland.ioutils.xdecompiler.merge;
 
-import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.Nullable;
-import org.objectweb.asm.ClassVisitor;
+import org.slf4j.Logger;
 import xland.ioutils.xdecompiler.util.CommonUtils;
 import xland.ioutils.xdecompiler.util.ConcurrentUtils;
+import xland.ioutils.xdecompiler.util.LogUtils;
+import xland.ioutils.xdecompiler.util.PerThread;
+import xland.ioutils.xdecompiler.util.PublicProperties;
+import xland.ioutils.xdecompiler.util.zip.ZipArchive;
+import xland.ioutils.xdecompiler.util.zip.ZipArchiveWriter;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.UnaryOperator;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class JarMerger implements AutoCloseable {
-    private final ZipFile inputClient, inputServer;
-    private final ZipOutputStream output;
-    private final @Nullable ZipOutputStream outputResources;
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final long MIN_BATCH_BYTES = 256L << 10;
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final byte[] MANIFEST_CONTENT = """
+            Manifest-Version: 1.0
+            Main-Class: net.minecraft.client.Main
+            """.getBytes(StandardCharsets.UTF_8);
+
+    private final ZipArchive inputClient, inputServer;
+    private final ClassStore output;
+    private final @Nullable ZipArchiveWriter outputResources;
 
     private boolean removeSnowmen = false;
     private boolean offsetSyntheticsParams = false;
+    private @Nullable Consumer<byte[]> classListener;
 
     public JarMerger(File inputClient, File inputServer,
-            /*new*/ ZipOutputStream output, @Nullable ZipOutputStream outputResources) throws IOException {
-        this.inputClient = new ZipFile(inputClient);
-        this.inputServer = new ZipFile(inputServer);
+            ClassStore output, @Nullable ZipArchiveWriter outputResources) throws IOException {
+        this(ZipArchive.open(inputClient.toPath()), ZipArchive.open(inputServer.toPath()), output, outputResources);
+    }
+
+    /**
+     * @param inputClient closed by {@link #close()}
+     * @param inputServer closed by {@link #close()}
+     */
+    public JarMerger(ZipArchive inputClient, ZipArchive inputServer,
+            ClassStore output, @Nullable ZipArchiveWriter outputResources) {
+        this.inputClient = inputClient;
+        this.inputServer = inputServer;
         this.output = output;
         this.outputResources = outputResources;
     }
 
-    private static void readToMap(ZipFile file, Map<String, Entry> entries, @Nullable ZipOutputStream outputRes) throws UncheckedIOException {
-        file.stream().forEach(e -> {
-            if (e.isDirectory()) return;
-
-            final String fn = e.getName();
-            if (!fn.endsWith(".class")) {
-                if ("META-INF/MANIFEST.MF".equals(fn)) {
-                    entries.put("META-INF/MANIFEST.MF", new Entry(
-                            fn, """
-                            Manifest-Version: 1.0
-                            Main-Class: net.minecraft.client.Main
-                            """.getBytes(StandardCharsets.UTF_8)
-                    ));
-                } else {
-                    if (fn.startsWith("META-INF/")) {
-                        if (fn.endsWith(".SF") || fn.endsWith(".RSA")) {
-                            return;
-                        }
-                    }
-                    if (outputRes == null) return;
+    private static List<ZipArchive.Entry> sortedEntries(ZipArchive archive) {
+        List<ZipArchive.Entry> entries = new ArrayList<>(archive.size());
+        for (ZipArchive.Entry e : archive.entries()) {
+            if (!e.isDirectory()) entries.add(e);
+        }
+        entries.sort(Comparator.comparing(ZipArchive.Entry::name));
+        return entries;
+    }
 
-                    try {
-                        outputRes.putNextEntry(e);
-                        try (InputStream is = file.getInputStream(e)) {
-                            is.transferTo(outputRes);
-                        }
-                        outputRes.closeEntry();
-                    } catch (IOException ex) {
-                        throw new UncheckedIOException(ex);
-                    }
-                }
+    /**
+     * Walks both central directories in name order and pairs up entries of the same name.
+     * Only metadata is kept here; entry contents are read when the pair gets merged.
+     */
+    private static List<EntryPair> joinEntries(List<ZipArchive.Entry> client, List<ZipArchive.Entry> server) {
+        List<EntryPair> pairs = new ArrayList<>(Math.max(client.size(), server.size()));
+        int i = 0, j = 0;
+        while (i < client.size() || j < server.size()) {
+            final ZipArchive.Entry c = i < client.size() ? client.get(i) : null;
+            final ZipArchive.Entry s = j < server.size() ? server.get(j) : null;
+            final int cmp = c == null ? 1 : s == null ? -1 : c.name().compareTo(s.name());
 
-                return;
+            if (cmp == 0) {
+                pairs.add(new EntryPair(c.name(), c, s));
+                i++;
+                j++;
+            } else if (cmp < 0) {
+                pairs.add(new EntryPair(c.name(), c, null));
+                i++;
+            } else {
+                pairs.add(new EntryPair(s.name(), null, s));
+                j++;
             }
+        }
+        return pairs;
+    }
 
-            byte[] output;
-            try (InputStream is = file.getInputStream(e)) {
-                output = is.readAllBytes();
-            } catch (IOException ex) {
-                throw new UncheckedIOException(ex);
-            }
+    private static boolean isSignature(String fn) {
+        return fn.startsWith("META-INF/") && (fn.endsWith(".SF") || fn.endsWith(".RSA"));
+    }
 
-            entries.put(fn, new Entry(fn, output));
-        });
+    private void dumpResources() throws IOException {
+        if (outputResources == null) return;
+
+        for (ZipArchive.Entry e : inputClient.entries()) {
+            final String fn = e.name();
+            if (e.isDirectory() || fn.endsWith(".class") || MANIFEST.equals(fn) || isSignature(fn)) continue;
+
+            // Resources are never rewritten, so copy them still compressed
+            outputResources.copyRaw(inputClient, e);
+        }
+    }
+
+    /**
+     * Treats both sides as byte-identical when the central directory reports the same CRC32 and size,
+     * which lets the merger copy the client entry without inflating either side. A CRC32 collision
+     * would drop the server side there; that risk is accepted. Wherever the class is inflated anyway,
+     * the bytes are compared as well.
+     */
+    private static boolean isIdentical(ZipArchive.@Nullable Entry client, ZipArchive.@Nullable Entry server) {
+        if (client == null || server == null) return false;
+        return client.crc() == server.crc() && client.size() == server.size();
+    }
+
+    private static byte @Nullable [] readEntry(ZipArchive archive, ZipArchive.@Nullable Entry entry,
+                                               PerThread<ZipArchive.Inflation> inflations) throws UncheckedIOException {
+        if (entry == null) return null;
+        try {
+            return archive.read(entry, inflations.get());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Splits consecutive pairs into batches of about {@code targetBytes} uncompressed, so that a few large
+     * classes do not end up in the same task while many small ones are spread thin.
+     */
+    private static List<List<EntryPair>> batches(List<EntryPair> pairs, long targetBytes) {
+        List<List<EntryPair>> batches = new ArrayList<>();
+        int start = 0;
+        long bytes = 0;
+        for (int i = 0; i < pairs.size(); i++) {
+            bytes += pairs.get(i).workSize();
+            if (bytes >= targetBytes) {
+                batches.add(pairs.subList(start, i + 1));
+                start = i + 1;
+                bytes = 0;
+            }
+        }
+        if (start < pairs.size()) batches.add(pairs.subList(start, pairs.size()));
+        return batches;
     }
 
     public void merge() throws RuntimeException {
-        Map<String, Entry> entriesClient = new LinkedHashMap<>();
-        Map<String, Entry> entriesServer = new LinkedHashMap<>();
+        final List<EntryPair> pairs = joinEntries(sortedEntries(inputClient), sortedEntries(inputServer));
 
-        boolean mergeSuccess;
-        Throwable mergeFailure = null;
-        try (ExecutorService service = ConcurrentUtils.namedVirtualThreadExecutor("jar-merger")) {
-            service.submit(() -> readToMap(inputClient, entriesClient, outputResources));
-            service.submit(() -> readToMap(inputServer, entriesServer, null));
-            service.shutdown();
+        AtomicReference<IOException> resourcesFailure = new AtomicReference<>();
+        Thread resourcesThread = Thread.ofVirtual().name("jar-merger-resources").start(() -> {
+            try {
+                dumpResources();
+            } catch (IOException ex) {
+                resourcesFailure.set(ex);
+            }
+        });
+
+        final ClassMergerProvider engine = ClassMergerProvider.get(PublicProperties.mergeEngine());
+        ClassMerger cm = engine.create(this.removeSnowmen, this.offsetSyntheticsParams);
+        final @Nullable MergeCache cache = MergeCache.create(engine.id(), this.removeSnowmen, this.offsetSyntheticsParams);
+        final boolean noPostVisit = !this.removeSnowmen && !this.offsetSyntheticsParams;
+        LongAdder classCount = new LongAdder(), identicalCount = new LongAdder();
 
+        final int threads = Math.max(1, PublicProperties.mergeThreads());
+        final long totalBytes = pairs.stream().mapToLong(EntryPair::workSize).sum();
+        // several batches per thread, so that threads finishing early can steal
+        final List<List<EntryPair>> batches = batches(pairs, Math.max(MIN_BATCH_BYTES, totalBytes / (threads * 8L)));
+
+        // the inflaters are ended only after the pool, and every worker using them, has terminated
+        try (PerThread<ZipArchive.Inflation> inflations = new PerThread<>(ZipArchive.Inflation::new, ZipArchive.Inflation::close);
+             ForkJoinPool pool = ConcurrentUtils.namedForkJoinPool("merge", threads)) {
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(batches.stream()
+                    .map(batch -> ForkJoinTask.adapt(() -> {
+                        for (EntryPair pair : batch) {
+                            mergeEntry(pair, cm, cache, noPostVisit, inflations, classCount, identicalCount);
+                        }
+                    }))
+                    .toList()
+            )));
+        } finally {
             try {
-                mergeSuccess = service.awaitTermination(1, TimeUnit.HOURS);
+                resourcesThread.join();
             } catch (InterruptedException e) {
-                mergeSuccess = false;
-                mergeFailure = e;
+                CommonUtils.sneakyThrow(e);
             }
         }
-        if (!mergeSuccess) {
-            RuntimeException ex = new RuntimeException("Merge failed");
-            if (mergeFailure != null) {
-                ex.initCause(mergeFailure);
-            }
-            throw ex;
+
+        if (resourcesFailure.get() != null) {
+            throw new UncheckedIOException("Failed to write resources", resourcesFailure.get());
         }
-        
-        Set<String> entriesAll = LinkedHashSet.newLinkedHashSet(entriesClient.size() + entriesServer.size());
-        entriesAll.addAll(entriesClient.keySet());
-        entriesAll.addAll(entriesServer.keySet());
-
-        ArrayList<UnaryOperator<ClassVisitor>> mergerExtraTransformers = new ArrayList<>(2);
-        if (this.removeSnowmen) mergerExtraTransformers.add(SnowmanClassVisitor::new);
-        if (this.offsetSyntheticsParams) mergerExtraTransformers.add(SyntheticParameterClassVisitor::new);
-        
-        ClassMerger cm = new ASMClassMerger(mergerExtraTransformers);
-
-        BlockingQueue<Entry> entryQueue = new ArrayBlockingQueue<>(entriesAll.size());
-        AtomicBoolean isComplete = new AtomicBoolean();
-
-        Thread writingThread = Thread.ofVirtual().name("jar-merger-writer").start(() -> {
-            while (!isComplete.get() || !entryQueue.isEmpty()) {
-                try {
-                    Entry e = entryQueue.poll();
-                    if (e == null) continue;
+        if (classCount.sum() > 0) {
+            LOGGER.info("\tMerged {} classes, {} ({}%) of which are identical on both sides",
+                    classCount.sum(), identicalCount.sum(), identicalCount.sum() * 100 / classCount.sum());
+        }
+        if (cache != null) {
+            LOGGER.info("\tMerge cache: {} hits, {} misses", cache.hits(), cache.misses());
+            cache.evict();
+        }
+    }
 
-                    output.putNextEntry(new ZipEntry(e.path));
-                    output.write(e.data);
-                    output.closeEntry();
+    private void mergeEntry(EntryPair pair, ClassMerger cm, @Nullable MergeCache cache, boolean noPostVisit,
+                            PerThread<ZipArchive.Inflation> inflations, LongAdder classCount, LongAdder identicalCount) {
+        final String entry = pair.name();
+        boolean isClass = entry.endsWith(".class");
+        boolean isMinecraft = pair.client() != null || entry.startsWith("net/minecraft/") || !entry.contains("/");
+
+        if (!isClass) {
+            if (!MANIFEST.equals(entry)) return;    // other resources go to outputResources
+            output.put(entry, MANIFEST_CONTENT);
+        } else if (!isMinecraft) {
+            // server-only non-minecraft classes
+            // Server may bundle libraries (before net.minecraft.bundler was introduced), client doesn't - skip them
+        } else {
+            classCount.increment();
+            final boolean identical = isIdentical(pair.client(), pair.server());
+            if (identical && noPostVisit && classListener == null) {
+                identicalCount.increment();
+                // Nothing needs the class file here, so it is passed on still compressed
+                try {
+                    output.copyRaw(inputClient, pair.client());
                 } catch (IOException ex) {
                     throw new UncheckedIOException(ex);
                 }
-            }
-        });
-
-        entriesAll.parallelStream().forEach((String entry) -> {
-            boolean isClass = entry.endsWith(".class");
-            boolean isMinecraft = entriesClient.containsKey(entry) || entry.startsWith("net/minecraft/") || !entry.contains("/");
-
-            Entry result;
-
-            Entry entry1 = entriesClient.get(entry);
-            Entry entry2 = entriesServer.get(entry);
-            assert entry1 != null || entry2 != null;
-            // entry1 != null -> isMinecraft
-            assert !isMinecraft || entry1 != null;
-
-            if (!isClass) {
-                // Arbitrarily choose entry1
-                result = Objects.requireNonNullElse(entry1, entry2);
-            } else if (!isMinecraft && entry1 == null) {
-                // server-only non-minecraft classes
-                // Server may bundle libraries (before net.minecraft.bundler was introduced), client doesn't - skip them
                 return;
+            }
+            // Read the pair only now, and let it go as soon as it is stored
+            final byte[] client = readEntry(inputClient, pair.client(), inflations);
+            final byte[] server = readEntry(inputServer, pair.server(), inflations);
+            if (identical && Arrays.equals(client, server)) {
+                identicalCount.increment();
+                // merging a class with itself costs less than hashing it for the cache
+                putClass(entry, noPostVisit ? client : cm.merge(client, client));
             } else {
-                result = new Entry(entry, cm.merge(Entry.getData(entry1), Entry.getData(entry2)));
+                putClass(entry, mergeCached(cm, cache, client, server));
             }
+        }
+    }
 
-            entryQueue.add(result);
-        });
+    private void putClass(String entry, byte[] merged) {
+        output.put(entry, merged);
+        if (classListener != null) classListener.accept(merged);
+    }
 
-        isComplete.set(true);
-        try {
-            writingThread.join();
-        } catch (InterruptedException e) {
-            CommonUtils.sneakyThrow(e);
+    private static byte[] mergeCached(ClassMerger cm, @Nullable MergeCache cache, byte @Nullable [] client, byte @Nullable [] server) {
+        if (cache == null) return cm.merge(client, server);
+
+        final byte[] key = cache.key(client, server);
+        byte[] merged = cache.get(key);
+        if (merged == null) {
+            merged = cm.merge(client, server);
+            cache.put(key, merged);
         }
+        return merged;
     }
 
-    private record Entry(String path, byte[] data) {
-        @Contract("null -> null")
-        private static byte @Nullable[] getData(@Nullable Entry entry) {
-            return entry != null ? entry.data() : null;
+    private record EntryPair(String name, ZipArchive.@Nullable Entry client, ZipArchive.@Nullable Entry server) {
+        // bytes to inflate and parse
+        long workSize() {
+            if (!name.endsWith(".class")) return 0;
+            if (isIdentical(client, server)) return client.size();
+            return (client != null ? client.size() : 0) + (server != null ? server.size() : 0);
         }
     }
 
@@ -198,7 +286,6 @@ public class JarMerger implements AutoCloseable {
     public void close() throws Exception {
         inputClient.close();
         inputServer.close();
-        output.finish();    // no need to close
         if (outputResources != null)
             outputResources.finish();
     }
@@ -210,4 +297,12 @@ public class JarMerger implements AutoCloseable {
     public void enableSyntheticParamsOffset() {
         offsetSyntheticsParams = true;
     }
+
+    /**
+     * @param classListener called with every merged class as soon as it is stored, concurrently from the
+     *                      merge threads. Must not modify the array.
+     */
+    public void setClassListener(@Nullable Consumer<byte[]> classListener) {
+        this.classListener = classListener;
+    }
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.merge;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import xland.ioutils.xdecompiler.mcmeta.HashingUtil;
+import xland.ioutils.xdecompiler.util.CommonUtils;
+import xland.ioutils.xdecompiler.util.FileUtils;
+import xland.ioutils.xdecompiler.util.LogUtils;
+import xland.ioutils.xdecompiler.util.PublicProperties;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent, content-addressed cache of merged classes, shared by runs over different versions.
+ * <p>
+ * An entry is keyed by the bytes of both sides together with everything else that affects the result
+ * (engine, enabled transformers, and the version of this program), so it never has to be invalidated.
+ * Builds without a version would hit entries of a different merger, so the cache is off for them.
+ * Each entry carries the length and CRC32 of the class, and entries which do not match are deleted on read.
+ * Entries are written to a temporary file first and then moved in place, so that concurrent runs sharing
+ * the directory never see a partial entry.
+ * Once the cache grows beyond {@link PublicProperties#mergeCacheMaxMiB()}, the least recently used entries are
+ * evicted at the end of a merge.
+ */
+final class MergeCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    // bump when the layout of the key or of the entries changes
+    private static final int FORMAT = 2;
+    private static final int HEADER = 8;    // length, CRC32
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+    private static final int ABSENT = -1, SAME_AS_CLIENT = -2;
+    private static final String LOCK_FILE = ".lock";
+    // temporary files left behind by runs which were killed while writing them
+    private static final long STALE_TMP_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(HashingUtil::sha256);
+
+    private final Path root;
+    private final byte[] salt;
+    private final long maxBytes;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private final AtomicBoolean writeFailed = new AtomicBoolean();
+
+    private MergeCache(Path root, byte[] salt, long maxBytes) {
+        this.root = root;
+        this.salt = salt;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache configured by {@link PublicProperties#mergeCacheDir()}, or {@code null} if it is disabled
+     */
+    static @Nullable MergeCache create(String engine, boolean removeSnowmen, boolean offsetSyntheticParams) {
+        final String dir = PublicProperties.mergeCacheDir();
+        if (dir.isEmpty()) return null;
+        if ("dev".equals(CommonUtils.programVersion())) {
+            LOGGER.info("\tMerge cache disabled: this build has no version to tell its merger apart");
+            return null;
+        }
+
+        final String salt = String.join("\0", "xdecompiler-merge", Integer.toString(FORMAT), CommonUtils.programVersion(), engine,
+                Boolean.toString(removeSnowmen), Boolean.toString(offsetSyntheticParams));
+        final long maxMiB = PublicProperties.mergeCacheMaxMiB();
+        return new MergeCache(Path.of(dir), salt.getBytes(StandardCharsets.UTF_8), maxMiB < 0 ? Long.MAX_VALUE : maxMiB << 20);
+    }
+
+    /**
+     * @param server the same array as {@code client} if both sides are identical, which then is hashed only once
+     */
+    byte[] key(byte @Nullable [] client, byte @Nullable [] server) {
+        final MessageDigest md = DIGEST.get();
+        md.update(salt);
+        updateSide(md, client, ABSENT);
+        updateSide(md, server, server != null && server == client ? SAME_AS_CLIENT : ABSENT);
+        return md.digest();
+    }
+
+    // lengths are hashed as well, so that moving bytes from one side to the other changes the key
+    private static void updateSide(MessageDigest md, byte @Nullable [] bytes, int marker) {
+        final int length = bytes == null || marker == SAME_AS_CLIENT ? marker : bytes.length;
+        md.update((byte) (length >>> 24));
+        md.update((byte) (length >>> 16));
+        md.update((byte) (length >>> 8));
+        md.update((byte) length);
+        if (length >= 0) md.update(bytes);
+    }
+
+    private Path path(byte[] key) {
+        final String hex = HashingUtil.stringify(key);
+        return root.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+    }
+
+    byte @Nullable [] get(byte[] key) {
+        try {
+            final Path path = path(key);
+            final byte[] merged = unpack(Files.readAllBytes(path));
+            if (merged == null) {
+                LOGGER.debug("Deleting corrupted merge cache entry {}", path);
+                Files.deleteIfExists(path);
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            touch(path);
+            return merged;
+        } catch (NoSuchFileException e) {
+            misses.increment();
+            return null;
+        } catch (IOException e) {
+            LOGGER.debug("Failed to read merge cache entry", e);
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Failures are logged once and otherwise ignored, since the cache is never required for a merge.
+     */
+    void put(byte[] key, byte[] merged) {
+        final Path target = path(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(target.getParent());
+            tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                out.write(ByteBuffer.allocate(HEADER).putInt(merged.length).putInt((int) crc32(merged)).array());
+                out.write(merged);
+            }
+            FileUtils.moveAtomically(tmp, target);
+        } catch (IOException e) {
+            if (writeFailed.compareAndSet(false, true)) {
+                LOGGER.warn("Failed to write merge cache entry to {}, continuing without it", target, e);
+            }
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static long crc32(byte[] bytes) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        return crc32.getValue();
+    }
+
+    /**
+     * @return the class in {@code entry}, or {@code null} if it is truncated or otherwise damaged
+     */
+    private static byte @Nullable [] unpack(byte[] entry) {
+        if (entry.length < HEADER + 4) return null;
+        final ByteBuffer header = ByteBuffer.wrap(entry);
+        final int length = header.getInt(0), crc = header.getInt(4);
+        if (length != entry.length - HEADER || header.getInt(HEADER) != CLASS_MAGIC) return null;
+        final byte[] merged = Arrays.copyOfRange(entry, HEADER, entry.length);
+        return (int) crc32(merged) == crc ? merged : null;
+    }
+
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private record Entry(Path path, long size, FileTime lastUsed) {}
+
+    /**
+     * Deletes the least recently used entries until the cache fits its limit. Entries are never modified, so they
+     * can go while other runs use the cache; such a run just misses them. Only one process sharing the cache
+     * evicts at a time, the others skip it.
+     */
+    void evict() {
+        if (maxBytes == Long.MAX_VALUE || !Files.isDirectory(root)) return;
+        try (FileChannel channel = FileChannel.open(root.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) return;
+
+            final long staleBefore = System.currentTimeMillis() - STALE_TMP_MILLIS;
+            final List<Entry> entries = new ArrayList<>();
+            try (Stream<Path> buckets = Files.list(root)) {
+                for (Path bucket : (Iterable<Path>) buckets::iterator) {
+                    if (!Files.isDirectory(bucket)) continue;
+                    try (Stream<Path> files = Files.list(bucket)) {
+                        for (Path path : (Iterable<Path>) files::iterator) {
+                            final BasicFileAttributes attributes;
+                            try {
+                                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                            } catch (NoSuchFileException e) {
+                                continue;   // replaced or evicted by another run meanwhile
+                            }
+                            if (!attributes.isRegularFile()) continue;
+                            if (path.getFileName().toString().indexOf('.') < 0) {
+                                entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime()));
+                            } else if (attributes.lastModifiedTime().toMillis() < staleBefore) {
+                                Files.deleteIfExists(path);
+                            }
+                        }
+                    }
+                }
+            }
+
+            long total = entries.stream().mapToLong(Entry::size).sum();
+            if (total <= maxBytes) return;
+            entries.sort(Comparator.comparing(Entry::lastUsed));
+            int evicted = 0;
+            for (Entry entry : entries) {
+                if (total <= maxBytes) break;
+                try {
+                    Files.deleteIfExists(entry.path());
+                    total -= entry.size();
+                    evicted++;
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to evict {}", entry.path(), e);
+                }
+            }
+            LOGGER.info("\tEvicted {} entries from the merge cache", evicted);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to evict old entries from the merge cache {}", root, e);
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+}
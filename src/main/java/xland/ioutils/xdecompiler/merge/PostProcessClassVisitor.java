@@ -0,0 +1,131 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.merge;
+
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * {@link SnowmanClassVisitor}, {@link SyntheticParameterClassVisitor} and the side mark of one-sided classes
+ * in a single visitor.
+ * <p>
+ * Methods which none of them would change are handed to the downstream visitor unwrapped, so that a
+ * {@link org.objectweb.asm.ClassWriter} sharing the constant pool of the source reader copies them as they are.
+ */
+final class PostProcessClassVisitor extends ClassVisitor {
+    private static final int UTF8_TAG = 1;
+
+    private final boolean removeSnowmen, offsetSyntheticParams;
+    private final boolean hasSnowmen;
+    private final @Nullable String side;
+
+    private String className;
+    private int synthetic;
+    private String syntheticArgs;
+    private boolean backoff;
+
+    /**
+     * @param hasSnowmen whether any source class may contain snowman names, see {@link #hasSnowmen(ClassReader)}
+     * @param side side to mark the class with, or {@code null}
+     */
+    PostProcessClassVisitor(ClassVisitor cv, boolean removeSnowmen, boolean offsetSyntheticParams,
+                            boolean hasSnowmen, @Nullable String side) {
+        super(Opcodes.ASM9, cv);
+        this.removeSnowmen = removeSnowmen;
+        this.offsetSyntheticParams = offsetSyntheticParams;
+        this.hasSnowmen = removeSnowmen && hasSnowmen;
+        this.side = side;
+    }
+
+    /**
+     * Snowman names are only ever renamed where they start a name, so a class whose constant pool has
+     * no UTF-8 entry starting with one has no method to rewrite.
+     */
+    static boolean hasSnowmen(ClassReader reader) {
+        for (int i = 1, count = reader.getItemCount(); i < count; i++) {
+            final int offset = reader.getItem(i);
+            // the second slot of long and double entries has no offset
+            if (offset == 0 || reader.readByte(offset - 1) != UTF8_TAG) continue;
+            // U+2603 is E2 98 83 in (modified) UTF-8
+            if (reader.readUnsignedShort(offset) >= 3 && reader.readByte(offset + 2) == 0xE2
+                    && reader.readByte(offset + 3) == 0x98 && reader.readByte(offset + 4) == 0x83) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        super.visit(version, access, name, signature, superName, interfaces);
+        this.className = name;
+
+        // Enums will always have a string name and then the ordinal
+        if ((access & Opcodes.ACC_ENUM) != 0) {
+            synthetic = 2;
+            syntheticArgs = "(Ljava/lang/String;I";
+        }
+        // Backoff on java 11 or newer due to nest mates being used.
+        backoff = version >= 55;
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+        if (removeSnowmen) {
+            // Don't trust the obfuscation on this.
+            super.visitSource(null, null);
+        } else {
+            super.visitSource(source, debug);
+        }
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        super.visitInnerClass(name, outerName, innerName, access);
+
+        if (synthetic == 0 && name.equals(this.className) && innerName != null && outerName != null && (access & Opcodes.ACC_STATIC) == 0) {
+            this.synthetic = 1;
+            this.syntheticArgs = "(L" + outerName + ";";
+        }
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (mv == null) return null;
+
+        if (hasSnowmen) {
+            mv = new SnowmanClassVisitor.SnowmanMethodVisitor(api, mv);
+        }
+        if (offsetSyntheticParams && synthetic != 0 && !backoff && name.equals("<init>") && descriptor.startsWith(syntheticArgs)) {
+            mv = new SyntheticParameterClassVisitor.SyntheticMethodVisitor(api, synthetic, mv);
+        }
+        return mv;
+    }
+
+    @Override
+    public void visitEnd() {
+        if (side != null) {
+            AnnotationVisitor av = cv.visitAnnotation(ASMClassMerger.SIDED_DESCRIPTOR, true);
+            ASMClassMerger.visitSideAnnotation(av, side);
+        }
+        super.visitEnd();
+    }
+}
@@ -29,7 +29,7 @@ import org.objectweb.asm.Opcodes;
  * parameter annotations.
  */
 public class SyntheticParameterClassVisitor extends ClassVisitor {
-    private static class SyntheticMethodVisitor extends MethodVisitor {
+    static class SyntheticMethodVisitor extends MethodVisitor {
         private final int offset;
 
         SyntheticMethodVisitor(int api, int offset, MethodVisitor methodVisitor) {
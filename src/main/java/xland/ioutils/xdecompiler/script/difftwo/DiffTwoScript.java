@@ -207,6 +207,10 @@ public final class DiffTwoScript extends Script {
                 System.setProperty("xdecompiler.vineflower.log.dir", workingDir.resolve(PublicProperties.vineFlowerLogDir()).toString());
             }
 
+            // the same versions tend to be diffed again
+            System.getProperties().putIfAbsent("xdecompiler.mappings.pool.cache", workingDir.resolve("member-pools").toString());
+            System.getProperties().putIfAbsent("xdecompiler.download.store", workingDir.resolve("artifacts").toString());
+
             List<String> ver1Args = new ArrayList<>(basicArgs), ver2Args = new ArrayList<>(basicArgs);
             Collections.addAll(ver1Args,
                     "--output-code", workingDir.resolve(out1).resolve("src").toString(),
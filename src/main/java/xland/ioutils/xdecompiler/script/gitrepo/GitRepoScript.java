@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import xland.ioutils.xdecompiler.mcmeta.VersionManifest;
 import xland.ioutils.xdecompiler.script.Script;
 import xland.ioutils.xdecompiler.util.CommonUtils;
+import xland.ioutils.xdecompiler.util.DownloadService;
 import xland.ioutils.xdecompiler.util.LogUtils;
 import xland.ioutils.xdecompiler.util.PublicProperties;
 import xland.ioutils.xdecompiler.util.TimeUtils;
@@ -96,9 +97,8 @@ public final class GitRepoScript extends Script {
     }
 
     private static String download(Path path, Supplier<String> urlProvider) throws IOException {
-        try (var is = URI.create(urlProvider.get()).toURL().openStream()) {
-            Files.copy(is, path, StandardCopyOption.REPLACE_EXISTING);
-        }
+        DownloadService.get().read(URI.create(urlProvider.get()).toURL(),
+                is -> Files.copy(is, path, StandardCopyOption.REPLACE_EXISTING));
         return path.toUri().toURL().toString();
     }
 
@@ -24,7 +24,6 @@ public final class CommonUtils {
     public static <E, K> List<E> mergePreserveOrder(List<? extends E> first, List<? extends E> second, Function<? super E, ? extends K> keyExtractor) {
         var result = new ArrayList<E>(first.size() + second.size());
         Merger.<E>samePath(dropSecond(), result::add).mergePreserveOrder(first, second, keyExtractor);
-        new Merger<E>(result::add, result::add, dropSecond(result::add)).mergePreserveOrder(first, second, Function.identity());
         return result;
     }
 
@@ -45,6 +44,14 @@ public final class CommonUtils {
         return (a, _) -> a;
     }
 
+    /**
+     * @return version of this program from the jar manifest, or {@code dev} when not run from a built jar
+     */
+    public static String programVersion() {
+        final String version = CommonUtils.class.getPackage().getImplementationVersion();
+        return version != null ? version : "dev";
+    }
+
     private static final String CHAR_POOL_NANO_ID = "0123456789abcdefghijklmnopqrstuvwxyz";
     private static final RandomGenerator RANDOM_NANO_ID = new SecureRandom();
     private static final int NANO_ID_DEFAULT_LEN = 16;
@@ -16,15 +16,23 @@
 package xland.ioutils.xdecompiler.util;
 
 import org.jetbrains.annotations.Contract;
+import org.slf4j.Logger;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
 public final class ConcurrentUtils {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
     public static ExecutorService namedVirtualThreadExecutor(String prefix) {
         return Executors.newThreadPerTaskExecutor(ExecutorServiceFactory.VIRTUAL.threadFactory(prefix));
     }
@@ -33,6 +41,18 @@ public final class ConcurrentUtils {
         return ExecutorServiceFactory.PLATFORM.newService(prefix, threadCount);
     }
 
+    /**
+     * A pool of its own, for CPU-bound work which should neither compete with nor be limited by the common pool.
+     */
+    public static ForkJoinPool namedForkJoinPool(String prefix, int parallelism) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ForkJoinPool(parallelism, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(prefix + '-' + counter.incrementAndGet());
+            return thread;
+        }, null, false);
+    }
+
     @FunctionalInterface
     private interface ExecutorServiceFactory {
         Thread.Builder threadBuilder();
@@ -89,5 +109,43 @@ public final class ConcurrentUtils {
         throw (T) throwableHolder.t0;
     }
 
+    @FunctionalInterface
+    public interface StageTask<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Schedules a pipeline stage that starts as soon as all {@code dependencies} complete.
+     * <p>The task may {@link CompletableFuture#join() join} its dependencies freely, since they are
+     * guaranteed to be done by then. If any dependency fails, the stage fails without running.
+     */
+    public static <T> CompletableFuture<T> stage(String name, Executor executor, StageTask<T> task,
+                                                 CompletableFuture<?>... dependencies) {
+        return CompletableFuture.allOf(dependencies).thenApplyAsync(_ -> {
+            LOGGER.info("[{}] Started", name);
+            final long t0 = System.nanoTime();
+            final T result;
+            try {
+                result = task.run();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            LOGGER.info("[{}] Finished in {}", name, TimeUtils.timeFormat(System.nanoTime() - t0));
+            return result;
+        }, executor);
+    }
+
+    /**
+     * Unwraps the {@link CompletionException} thrown by {@link CompletableFuture#join()} and rethrows its cause.
+     */
+    public static <T> T joinUnwrapped(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            CommonUtils.sneakyThrow(e.getCause() != null ? e.getCause() : e);
+            throw new IncompatibleClassChangeError();   // unreachable
+        }
+    }
+
     private ConcurrentUtils() {}
 }
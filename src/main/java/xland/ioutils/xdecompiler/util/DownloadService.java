@@ -0,0 +1,422 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Every remote read of this program goes through here: a single {@link HttpClient}, whose connections (HTTP/2
+ * where the server supports it) are reused across downloads, with a bounded number of concurrent requests per
+ * host, retries with exponential backoff on transient failures, and per-host throughput metrics.
+ * <p>
+ * URLs other than {@code http} and {@code https} are read directly through {@link URL#openStream()}.
+ */
+public final class DownloadService {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    // until the response headers arrive; bodies may take as long as they need
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final long BACKOFF_BASE_MILLIS = 500, BACKOFF_MAX_MILLIS = 8000;
+
+    private static volatile DownloadService instance;
+
+    private final HttpClient client;
+    private final int connectionsPerHost;
+    private final int retries;
+    private final long backoffBaseMillis;
+    private final String userAgent;
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+    private final Map<String, HostStats> stats = new ConcurrentSkipListMap<>();
+
+    DownloadService(int connectionsPerHost, int retries, long backoffBaseMillis) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .executor(ConcurrentUtils.namedVirtualThreadExecutor("http"))
+                .build();
+        this.connectionsPerHost = connectionsPerHost;
+        this.retries = retries;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.userAgent = "xdecompiler/" + CommonUtils.programVersion();
+    }
+
+    /**
+     * @return the service configured by {@link PublicProperties#downloadConnectionsPerHost()}
+     * and {@link PublicProperties#downloadRetries()}
+     */
+    public static DownloadService get() {
+        if (instance == null) {
+            synchronized (DownloadService.class) {
+                if (instance == null) {
+                    instance = new DownloadService(PublicProperties.downloadConnectionsPerHost(), PublicProperties.downloadRetries(), BACKOFF_BASE_MILLIS);
+                }
+            }
+        }
+        return instance;
+    }
+
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    /**
+     * Retries until the response headers arrive. Failures while reading the body are left to the caller,
+     * since the service cannot know what the caller has done with the bytes so far.
+     *
+     * @return the response body, which must be closed
+     * @throws FileNotFoundException if the server answers {@code 404} or {@code 410}
+     */
+    public InputStream open(URL url) throws IOException {
+        return withRetries(url, () -> openOnce(url, null).body());
+    }
+
+    /**
+     * Same as {@link #open(URL)}, except that the whole read is retried if the connection fails transiently,
+     * so {@code reader} must be safe to run again from the start. Failures of {@code reader} itself, such as
+     * a full disk, are not retried.
+     */
+    public <T> T read(URL url, BodyReader<T> reader) throws IOException {
+        return withRetries(url, () -> {
+            try (InputStream body = openOnce(url, null).body()) {
+                return readBody(body, reader);
+            }
+        });
+    }
+
+    /**
+     * Requests bytes {@code first} to {@code last} of the file, both inclusive. Retries until the response headers arrive.
+     *
+     * @return the requested range, or {@code null} if the server does not serve ranges
+     */
+    public @Nullable RangeBody openRange(URL url, long first, long last) throws IOException {
+        if (!isHttp(url)) return null;
+        return withRetries(url, () -> openRangeOnce(url, first, last));
+    }
+
+    /**
+     * Same as {@link #openRange(URL, long, long)}, except that the whole read is retried if the connection fails
+     * transiently, like {@link #read(URL, BodyReader)}.
+     *
+     * @throws IOException also if the server stops serving ranges
+     */
+    public <T> T readRange(URL url, long first, long last, BodyReader<T> reader) throws IOException {
+        return withRetries(url, () -> {
+            try (RangeBody range = openRangeOnce(url, first, last)) {
+                if (range == null) throw new RangesUnsupportedException(url);
+                return readBody(range.body(), reader);
+            }
+        });
+    }
+
+    /**
+     * @param totalLength length of the whole file, or {@code -1} if the server did not tell
+     */
+    public record RangeBody(InputStream body, long totalLength) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    public String readString(URL url) throws IOException {
+        return read(url, body -> new String(body.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Logs the metrics collected so far, one line per host.
+     */
+    public void logStats() {
+        stats.forEach((host, s) -> LOGGER.info("\t{}: {}", host, s));
+    }
+
+    @FunctionalInterface
+    private interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    private static <T> T readBody(InputStream body, BodyReader<T> reader) throws IOException {
+        try {
+            return reader.read(body);
+        } catch (IOException e) {
+            if (body instanceof CountingBody counting && counting.failed) throw e;
+            throw new ReaderException(e);
+        }
+    }
+
+    private <T> T withRetries(URL url, Attempt<T> attempt) throws IOException {
+        for (int i = 0; ; i++) {
+            try {
+                return attempt.run();
+            } catch (ReaderException e) {
+                throw e.getCause();
+            } catch (IOException e) {
+                if (i >= retries || !isHttp(url) || !isTransient(e)) throw e;
+
+                final long backoff = Math.min(BACKOFF_MAX_MILLIS, backoffBaseMillis << i);
+                final long sleep = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                stats(url).retries.increment();
+                LOGGER.warn("Failed to download {} ({}), retrying in {} ms", url, e.toString(), sleep);
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw interrupted(ie);
+                }
+            }
+        }
+    }
+
+    private static boolean isHttp(URL url) {
+        return "http".equals(url.getProtocol()) || "https".equals(url.getProtocol());
+    }
+
+    private static boolean isTransient(IOException e) {
+        if (Thread.currentThread().isInterrupted()) return false;
+        return !(e instanceof FileNotFoundException || e instanceof RangesUnsupportedException
+                || e instanceof StatusException s && !s.isTransient());
+    }
+
+    private @Nullable RangeBody openRangeOnce(URL url, long first, long last) throws IOException {
+        final Response response = openOnce(url, "bytes=" + first + '-' + last);
+        if (response.status() != 206) {
+            // the whole file, which the caller did not ask for
+            response.body().close();
+            return null;
+        }
+        // Content-Range: bytes <first>-<last>/<total or *>
+        final String contentRange = response.headers().firstValue("Content-Range").orElse("");
+        final int slash = contentRange.lastIndexOf('/');
+        long total = -1;
+        if (slash >= 0) {
+            try {
+                total = Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return new RangeBody(response.body(), total);
+    }
+
+    private record Response(InputStream body, int status, HttpHeaders headers) {}
+
+    private Response openOnce(URL url, @Nullable String range) throws IOException {
+        if (!isHttp(url)) return new Response(url.openStream(), 200, HttpHeaders.of(Map.of(), (_, _) -> true));
+
+        final URI uri;
+        try {
+            uri = url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(REQUEST_TIMEOUT)
+                .header("User-Agent", userAgent)
+                .GET();
+        if (range != null) builder.header("Range", range);
+        final HttpRequest request = builder.build();
+
+        final HostStats hostStats = stats(url);
+        final Semaphore semaphore = permits.computeIfAbsent(url.getHost(), _ -> new Semaphore(connectionsPerHost));
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw interrupted(e);
+        }
+
+        boolean opened = false;
+        try {
+            final long t0 = System.nanoTime();
+            final HttpResponse<InputStream> response;
+            try {
+                response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw interrupted(e);
+            }
+            hostStats.requests.increment();
+            final long latency = System.nanoTime() - t0;
+            hostStats.latencyNanos.add(latency);
+            hostStats.maxLatencyNanos.accumulate(latency);
+
+            final int status = response.statusCode();
+            if (status / 100 != 2) {
+                response.body().close();
+                if (status == 404 || status == 410) throw new FileNotFoundException(url + " (HTTP " + status + ')');
+                throw new StatusException(url, status);
+            }
+            final InputStream body = new CountingBody(response.body(), semaphore, hostStats, t0);
+            opened = true;
+            return new Response(body, status, response.headers());
+        } finally {
+            if (!opened) semaphore.release();
+        }
+    }
+
+    private HostStats stats(URL url) {
+        return stats.computeIfAbsent(url.getHost(), _ -> new HostStats());
+    }
+
+    private static InterruptedIOException interrupted(InterruptedException e) {
+        final InterruptedIOException ex = new InterruptedIOException("Interrupted while downloading");
+        ex.initCause(e);
+        return ex;
+    }
+
+    private static final class StatusException extends IOException {
+        private final int status;
+
+        StatusException(URL url, int status) {
+            super("HTTP " + status + " from " + url);
+            this.status = status;
+        }
+
+        // timeouts, rate limits and server errors
+        boolean isTransient() {
+            return status == 408 || status == 425 || status == 429 || status >= 500;
+        }
+    }
+
+    // thrown by a reader rather than by the connection, which another attempt would not fix
+    private static final class ReaderException extends IOException {
+        ReaderException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    private static final class RangesUnsupportedException extends IOException {
+        RangesUnsupportedException(URL url) {
+            super("Range requests are not served for " + url);
+        }
+    }
+
+    private static final class HostStats {
+        final LongAdder requests = new LongAdder(), retries = new LongAdder();
+        final LongAdder bytes = new LongAdder(), transferNanos = new LongAdder();
+        final LongAdder latencyNanos = new LongAdder();
+        final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+
+        @Override
+        public String toString() {
+            final long requests = this.requests.sum(), bytes = this.bytes.sum(), nanos = transferNanos.sum();
+            return String.format("%d requests, %d retries, %.1f MiB at %.1f MiB/s per connection, latency %.0f ms on average, %.0f ms at most",
+                    requests, retries.sum(), bytes / 1048576.0,
+                    nanos == 0 ? 0.0 : bytes / 1048576.0 / (nanos / 1e9),
+                    requests == 0 ? 0.0 : latencyNanos.sum() / 1e6 / requests,
+                    maxLatencyNanos.get() / 1e6);
+        }
+    }
+
+    // holds the permit of its host until closed, and tells whether the connection failed while it was read
+    private static final class CountingBody extends FilterInputStream {
+        private final Semaphore semaphore;
+        private final HostStats stats;
+        private final long t0;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private long bytes;
+        private volatile boolean failed;
+
+        CountingBody(InputStream in, Semaphore semaphore, HostStats stats, long t0) {
+            super(in);
+            this.semaphore = semaphore;
+            this.stats = stats;
+            this.t0 = t0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b;
+            try {
+                b = super.read();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            if (b >= 0) bytes++;
+            return b;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            final int n;
+            try {
+                n = in.read(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            if (n > 0) bytes += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped;
+            try {
+                skipped = super.skip(n);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            bytes += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed.compareAndSet(false, true)) return;
+            try {
+                super.close();
+            } finally {
+                stats.bytes.add(bytes);
+                stats.transferNanos.add(System.nanoTime() - t0);
+                semaphore.release();
+            }
+        }
+    }
+}
@@ -17,17 +17,19 @@ package xland.ioutils.xdecompiler.util;
 
 import mjson.Json;
 import org.jetbrains.annotations.NotNull;
+import xland.ioutils.xdecompiler.util.zip.ZipArchive;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 public final class FileUtils {
     public static void deleteRecursively(Path root, boolean retainRoot) throws IOException {
@@ -54,16 +56,15 @@ public final class FileUtils {
 
     public static void extractZip(Path archive, Path outDir) throws IOException {
         Files.createDirectories(outDir);
-        try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(archive))) {
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
+        try (ZipArchive zip = ZipArchive.open(archive)) {
+            for (ZipArchive.Entry entry : zip.entries()) {
                 if (entry.isDirectory()) {
-                    Files.createDirectories(outDir.resolve(entry.getName()));
+                    Files.createDirectories(outDir.resolve(entry.name()));
                     continue;
                 }
-                Path resolve = outDir.resolve(entry.getName());
+                Path resolve = outDir.resolve(entry.name());
                 Files.createDirectories(resolve.getParent());
-                Files.copy(zis, resolve);
+                Files.write(resolve, zip.read(entry), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
             }
         }
     }
@@ -96,5 +97,17 @@ public final class FileUtils {
         }
     }
 
+    /**
+     * Moves {@code source} over {@code target} atomically where the file system can, so that readers of
+     * {@code target} see either the old file or the complete new one. Elsewhere it is replaced by a plain move.
+     */
+    public static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     private FileUtils() {}
 }
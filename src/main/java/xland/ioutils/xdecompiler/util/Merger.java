@@ -15,9 +15,10 @@
  */
 package xland.ioutils.xdecompiler.util;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.util.*;
 import java.util.function.*;
-import java.util.stream.Collectors;
 
 public record Merger<E>(Consumer<? super E> firstOnlyConsumer,
                         Consumer<? super E> secondOnlyConsumer,
@@ -66,34 +67,46 @@ public record Merger<E>(Consumer<? super E> firstOnlyConsumer,
     }
 
     public <K> void mergePreserveOrder(List<? extends E> first, List<? extends E> second, Function<? super E, ? extends K> keyExtractor) {
-        if (first instanceof RandomAccess && second instanceof RandomAccess) {
-            mergePreserveOrderRA(first, second, keyExtractor);
-        } else {
-            mergePreserveOrderNRA(first, second, keyExtractor);
-        }
+        mergePreserveOrder(first, second, keyExtractor, null);
     }
 
-    private <K> void mergePreserveOrderRA(
-            List<? extends E> first,
-            List<? extends E> second,
-            Function<? super E, ? extends K> keyExtractor) {
-
-        // Precompute key sets for membership test
-        Map<K, E> firstEntries = first.stream().collect(Collectors.toMap(keyExtractor, Function.identity()));
-        Map<K, E> secondEntries = second.stream().collect(Collectors.toMap(keyExtractor, Function.identity()));
+    /**
+     * Like {@link #mergePreserveOrder(List, List, Function)}, keyed by a pair such as a member name and descriptor,
+     * which is compared part by part instead of being concatenated.
+     */
+    public void mergePreserveOrder(List<? extends E> first, List<? extends E> second,
+                                   Function<? super E, ?> primaryKey, @Nullable Function<? super E, ?> secondaryKey) {
+        if (!(first instanceof RandomAccess)) first = new ArrayList<>(first);
+        if (!(second instanceof RandomAccess)) second = new ArrayList<>(second);
+
+        final KeyTable[] scratch = SCRATCH.get();
+        // consumers may merge again on the same thread
+        final boolean reuse = scratch[0] != null;
+        final KeyTable firstKeys = reuse ? scratch[0] : new KeyTable();
+        final KeyTable secondKeys = reuse ? scratch[1] : new KeyTable();
+        scratch[0] = scratch[1] = null;
+        try {
+            firstKeys.load(first, primaryKey, secondaryKey);
+            secondKeys.load(second, primaryKey, secondaryKey);
+            mergePreserveOrder(first, second, firstKeys, secondKeys);
+        } finally {
+            firstKeys.clear();
+            secondKeys.clear();
+            scratch[0] = firstKeys;
+            scratch[1] = secondKeys;
+        }
+    }
 
+    private void mergePreserveOrder(List<? extends E> first, List<? extends E> second,
+                                    KeyTable firstKeys, KeyTable secondKeys) {
+        final int firstSize = first.size(), secondSize = second.size();
         int i = 0, j = 0;
 
-        while (i < first.size() || j < second.size()) {
+        while (i < firstSize || j < secondSize) {
             final int saved = i + j;
 
             // Align elements with same key at current positions
-            while (i < first.size() && j < second.size()) {
-                K key1 = keyExtractor.apply(first.get(i));
-                K key2 = keyExtractor.apply(second.get(j));
-                if (!Objects.equals(key1, key2)) {
-                    break;
-                }
+            while (i < firstSize && j < secondSize && firstKeys.sameKey(i, secondKeys, j)) {
                 // Keys match -> treat as shared
                 sharedConsumer.accept(first.get(i), second.get(j));
                 i++;
@@ -101,13 +114,13 @@ public record Merger<E>(Consumer<? super E> firstOnlyConsumer,
             }
 
             // Consume first-only elements (not in second)
-            while (i < first.size() && !secondEntries.containsKey(keyExtractor.apply(first.get(i)))) {
+            while (i < firstSize && secondKeys.indexOf(firstKeys, i) < 0) {
                 firstOnlyConsumer.accept(first.get(i));
                 i++;
             }
 
             // Consume second-only elements (not in first)
-            while (j < second.size() && !firstEntries.containsKey(keyExtractor.apply(second.get(j)))) {
+            while (j < secondSize && firstKeys.indexOf(secondKeys, j) < 0) {
                 secondOnlyConsumer.accept(second.get(j));
                 j++;
             }
@@ -115,33 +128,99 @@ public record Merger<E>(Consumer<? super E> firstOnlyConsumer,
             // If no progress was made, fall back to drain both lists
             if (i + j == saved) {
                 // Drain remaining of first
-                for (; i < first.size(); i++) {
-                    E e = first.get(i);
-                    K k = keyExtractor.apply(e);
-                    boolean isShared = secondEntries.containsKey(k);
-                    if (isShared) {
-                        sharedConsumer.accept(e, secondEntries.get(k));
+                for (; i < firstSize; i++) {
+                    final int shared = secondKeys.indexOf(firstKeys, i);
+                    if (shared >= 0) {
+                        sharedConsumer.accept(first.get(i), second.get(shared));
                     } else {
-                        firstOnlyConsumer.accept(e);
+                        firstOnlyConsumer.accept(first.get(i));
                     }
                 }
 
                 // Drain remaining of second, but skip already processed shared ones
-                for (; j < second.size(); j++) {
-                    E e = second.get(j);
-                    K k = keyExtractor.apply(e);
-                    if (!firstEntries.containsKey(k)) {
-                        secondOnlyConsumer.accept(e);
+                for (; j < secondSize; j++) {
+                    if (firstKeys.indexOf(secondKeys, j) < 0) {
+                        secondOnlyConsumer.accept(second.get(j));
                     }
                     // If it's shared, it was already handled in the first loop above
                 }
             }
         }
-
-//        return out;
     }
 
-    private <K> void mergePreserveOrderNRA(List<? extends E> first, List<? extends E> second, Function<? super E, ? extends K> keyExtractor) {
-        mergePreserveOrderRA(new ArrayList<>(first), new ArrayList<>(second), keyExtractor);
+    private static final ThreadLocal<KeyTable[]> SCRATCH = ThreadLocal.withInitial(() -> new KeyTable[2]);
+
+    /**
+     * Keys of one list, each extracted once, with an open-addressing index from key to position.
+     * Arrays only grow, so a table reused by a thread allocates nothing once it is large enough.
+     */
+    private static final class KeyTable {
+        private Object[] primary = new Object[16], secondary = new Object[16];
+        private int[] hashes = new int[16];
+        private int[] slots = new int[16];      // position + 1, or 0 if free
+        private int mask, size;
+
+        <E> void load(List<? extends E> list, Function<? super E, ?> primaryKey, @Nullable Function<? super E, ?> secondaryKey) {
+            final int n = list.size();
+            if (primary.length < n) {
+                final int capacity = Math.max(n, primary.length * 2);
+                primary = new Object[capacity];
+                secondary = new Object[capacity];
+                hashes = new int[capacity];
+            }
+            final int slotCount = Math.max(16, Integer.highestOneBit(Math.max(1, n) * 2 - 1) << 1);
+            if (slots.length < slotCount) {
+                slots = new int[slotCount];
+            }
+            mask = slotCount - 1;
+            size = n;
+
+            for (int i = 0; i < n; i++) {
+                final E e = list.get(i);
+                final Object k1 = primaryKey.apply(e);
+                final Object k2 = secondaryKey == null ? null : secondaryKey.apply(e);
+                final int hash = mix(Objects.hashCode(k1) * 31 + Objects.hashCode(k2));
+                primary[i] = k1;
+                secondary[i] = k2;
+                hashes[i] = hash;
+
+                int slot = hash & mask;
+                for (int existing; (existing = slots[slot]) != 0; slot = (slot + 1) & mask) {
+                    if (sameKey(existing - 1, this, i)) {
+                        throw new IllegalStateException(String.format("Duplicate key %s (attempted merging values %s and %s)",
+                                secondaryKey == null ? k1 : k1 + " " + k2, list.get(existing - 1), e));
+                    }
+                }
+                slots[slot] = i + 1;
+            }
+        }
+
+        private static int mix(int h) {
+            return h ^ (h >>> 16);
+        }
+
+        boolean sameKey(int i, KeyTable other, int j) {
+            return hashes[i] == other.hashes[j]
+                    && Objects.equals(primary[i], other.primary[j])
+                    && Objects.equals(secondary[i], other.secondary[j]);
+        }
+
+        /**
+         * @return position of the key which {@code other} has at {@code j}, or {@code -1}
+         */
+        int indexOf(KeyTable other, int j) {
+            for (int slot = other.hashes[j] & mask, existing; (existing = slots[slot]) != 0; slot = (slot + 1) & mask) {
+                if (sameKey(existing - 1, other, j)) return existing - 1;
+            }
+            return -1;
+        }
+
+        // drops references to keys, so that a thread's scratch does not keep them alive
+        void clear() {
+            Arrays.fill(primary, 0, size, null);
+            Arrays.fill(secondary, 0, size, null);
+            Arrays.fill(slots, 0, mask + 1, 0);
+            size = 0;
+        }
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * One instance per thread of a pool, for native state (e.g. zlib) which is too costly to create per task.
+ * Unlike a plain {@link ThreadLocal}, every instance handed out is remembered, so that all of them can be
+ * released once the pool has shut down, rather than whenever the collector gets to them.
+ * <p>
+ * {@link #close()} must only be called when no thread uses its instance any more.
+ */
+public final class PerThread<T> implements AutoCloseable {
+    private final ThreadLocal<T> local;
+    private final Queue<T> created = new ConcurrentLinkedQueue<>();
+    private final Consumer<? super T> release;
+
+    public PerThread(Supplier<? extends T> factory, Consumer<? super T> release) {
+        this.release = release;
+        this.local = ThreadLocal.withInitial(() -> {
+            final T t = factory.get();
+            created.add(t);
+            return t;
+        });
+    }
+
+    public T get() {
+        return local.get();
+    }
+
+    @Override
+    public void close() {
+        T t;
+        while ((t = created.poll()) != null) {
+            release.accept(t);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package xland.ioutils.xdecompiler.util;
 import org.slf4j.Logger;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Properties;
 
 public final class PublicProperties {
@@ -38,6 +39,48 @@ public final class PublicProperties {
         return System.getProperty("xdecompiler.download.mc.manifest", "https://piston-meta.mojang.com/mc/game/version_manifest_v2.json");
     }
 
+    /**
+     * @return requests to a single host that {@link DownloadService} runs at the same time
+     */
+    public static int downloadConnectionsPerHost() {
+        return Integer.getInteger("xdecompiler.download.connections", 8);
+    }
+
+    /**
+     * @return times {@link DownloadService} retries a request which failed transiently
+     */
+    public static int downloadRetries() {
+        return Integer.getInteger("xdecompiler.download.retries", 3);
+    }
+
+    /**
+     * @return MiB per range request when downloading a large file in parallel, or {@code 0} to download every file in one piece
+     */
+    public static int downloadSegmentMiB() {
+        return Integer.getInteger("xdecompiler.download.segment", 4);
+    }
+
+    /**
+     * @return directory of partial segmented downloads, kept across runs by their hash so that a later run resumes them
+     */
+    public static String downloadPartsDir() {
+        return System.getProperty("xdecompiler.download.parts", Path.of(System.getProperty("java.io.tmpdir"), "xdecompiler-downloads").toString());
+    }
+
+    /**
+     * @return directory of downloaded files kept across runs by their hash, or empty to disable it
+     */
+    public static String artifactStoreDir() {
+        return System.getProperty("xdecompiler.download.store", "");
+    }
+
+    /**
+     * @return MiB the artifact store may take before the least recently used files are evicted, or negative for no limit
+     */
+    public static long artifactStoreMaxMiB() {
+        return Long.getLong("xdecompiler.download.store.max", 4096);
+    }
+
     @Deprecated(forRemoval = true)
     public static int downloadThreads() {
         return Integer.getInteger("xdecompiler.threads.download", 4);
@@ -52,6 +95,65 @@ public final class PublicProperties {
         return Integer.getInteger("xdecompiler.threads.remap", 1);
     }
 
+    public static int mergeThreads() {
+        return Integer.getInteger("xdecompiler.threads.merge", Runtime.getRuntime().availableProcessors());
+    }
+
+    public static int deflateThreads() {
+        return Integer.getInteger("xdecompiler.threads.deflate", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return whether intermediate artifacts should be byte-identical across runs with identical inputs,
+     * at some cost of memory and time
+     */
+    public static boolean deterministic() {
+        return Boolean.getBoolean("xdecompiler.deterministic");
+    }
+
+    /**
+     * @return where merged classes are kept: {@code heap} or {@code offheap}
+     */
+    public static String classStore() {
+        return System.getProperty("xdecompiler.merge.store", "heap");
+    }
+
+    /**
+     * @return MiB of off-heap memory for merged classes before spilling to disk, or negative for no limit
+     */
+    public static long classStoreBudgetMiB() {
+        return Long.getLong("xdecompiler.merge.store.budget", -1);
+    }
+
+    /**
+     * @return id of the {@link xland.ioutils.xdecompiler.merge.ClassMergerProvider} to merge classes with,
+     * currently only {@code asm}
+     */
+    public static String mergeEngine() {
+        return System.getProperty("xdecompiler.merge.engine", "asm");
+    }
+
+    /**
+     * @return directory of the persistent merge result cache shared across runs, or empty to disable it
+     */
+    public static String mergeCacheDir() {
+        return System.getProperty("xdecompiler.merge.cache", "");
+    }
+
+    /**
+     * @return MiB the merge cache may take before the least recently used entries are evicted, or negative for no limit
+     */
+    public static long mergeCacheMaxMiB() {
+        return Long.getLong("xdecompiler.merge.cache.max", 1024);
+    }
+
+    /**
+     * @return directory of class member pool snapshots, reused by later runs over the same version, or empty to disable them
+     */
+    public static String memberPoolCacheDir() {
+        return System.getProperty("xdecompiler.mappings.pool.cache", "");
+    }
+
     public static String vineFlowerUrl() {
         return System.getProperty("xdecompiler.download.vineflower", "https://repo1.maven.org/maven2/org/vineflower/vineflower/1.9.2/vineflower-1.9.2.jar");
     }
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.util.zip;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal zip reader working on the central directory, which can hand out entries
+ * either inflated or as their raw (still compressed) bytes.
+ * <p>
+ * The whole file is memory-mapped, and entries are inflated from the mapping without reading the file again.
+ * Reads take no locks, so one instance may be shared among threads.
+ */
+public final class ZipArchive implements Closeable {
+    static final int LOC_SIG = 0x04034b50, CEN_SIG = 0x02014b50, END_SIG = 0x06054b50;
+    static final int ZIP64_END_SIG = 0x06064b50, ZIP64_LOCATOR_SIG = 0x07064b50;
+    static final int LOC_HEADER = 30, CEN_HEADER = 46, END_HEADER = 22;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    // null if the segment is on the heap, or owned by the parent
+    private final @Nullable Arena arena;
+    private final MemorySegment segment;
+    private final @Nullable ZipArchive parent;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byName;
+
+    private ZipArchive(@Nullable Arena arena, MemorySegment segment) throws IOException {
+        this(arena, segment, null);
+    }
+
+    private ZipArchive(@Nullable Arena arena, MemorySegment segment, @Nullable ZipArchive parent) throws IOException {
+        this.arena = arena;
+        this.segment = segment;
+        this.parent = parent;
+        this.entries = readCentralDirectory();
+        this.byName = HashMap.newHashMap(entries.size());
+        for (Entry e : entries) {
+            byName.putIfAbsent(e.name(), e);
+        }
+    }
+
+    public static ZipArchive open(Path path) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new ZipArchive(arena, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena));
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an archive which is an entry of this one, such as a jar in a jar, without extracting it to a file.
+     * Stored entries are read in place from this archive, and deflated ones are inflated to the heap.
+     * <p>
+     * The nested archive takes this one over: closing it closes this archive as well.
+     */
+    public ZipArchive openNested(Entry entry) throws IOException {
+        final MemorySegment data = switch (entry.method()) {
+            case ZipEntry.STORED -> rawSegment(entry);
+            case ZipEntry.DEFLATED -> MemorySegment.ofArray(read(entry)).asReadOnly();
+            default -> throw new ZipException("Unsupported compression method " + entry.method() + " of " + entry.name());
+        };
+        return new ZipArchive(null, data, this);
+    }
+
+    /**
+     * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param localHeaderOffset offset of the local file header
+     */
+    public record Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * @return all entries, in central directory order
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public @Nullable Entry get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * @return a read-only view of the entry data as stored in the archive, valid until this archive is closed
+     */
+    public MemorySegment rawSegment(Entry entry) throws IOException {
+        final long loc = entry.localHeaderOffset();
+        checkBounds(loc, LOC_HEADER, entry);
+        if (segment.get(INT, loc) != LOC_SIG) throw new ZipException("Bad local header for " + entry.name());
+        final long dataOffset = loc + LOC_HEADER
+                + Short.toUnsignedInt(segment.get(SHORT, loc + 26)) + Short.toUnsignedInt(segment.get(SHORT, loc + 28));
+        checkBounds(dataOffset, entry.compressedSize(), entry);
+        return segment.asSlice(dataOffset, entry.compressedSize()).asReadOnly();
+    }
+
+    /**
+     * @return the bytes of the entry as stored in the archive, without inflating
+     */
+    public byte[] readRaw(Entry entry) throws IOException {
+        return rawSegment(entry).toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    /**
+     * Inflation state which a thread reading many entries may keep, instead of creating it for each entry.
+     * Not thread-safe.
+     */
+    public static final class Inflation implements AutoCloseable {
+        private final Inflater inflater = new Inflater(true);
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+    }
+
+    public byte[] read(Entry entry) throws IOException {
+        if (entry.method() != ZipEntry.DEFLATED) return read(entry, null);
+        try (Inflation inflation = new Inflation()) {
+            return read(entry, inflation);
+        }
+    }
+
+    /**
+     * @param inflation reused for deflated entries, or {@code null} if the entry is known to be stored
+     */
+    public byte[] read(Entry entry, @Nullable Inflation inflation) throws IOException {
+        final MemorySegment raw = rawSegment(entry);
+        return switch (entry.method()) {
+            case ZipEntry.STORED -> raw.toArray(ValueLayout.JAVA_BYTE);
+            case ZipEntry.DEFLATED -> inflate(raw, Math.toIntExact(entry.size()), entry.name(),
+                    Objects.requireNonNull(inflation, "inflation"));
+            default -> throw new ZipException("Unsupported compression method " + entry.method() + " of " + entry.name());
+        };
+    }
+
+    /**
+     * Inflates deflated data kept apart from its archive, such as a copy of {@link #rawSegment}.
+     *
+     * @param size the uncompressed size
+     */
+    public static byte[] inflate(MemorySegment raw, long size, String name) throws ZipException {
+        try (Inflation inflation = new Inflation()) {
+            return inflate(raw, Math.toIntExact(size), name, inflation);
+        }
+    }
+
+    // the segment is handed to the inflater as is, whether it is mapped, off-heap or on the heap
+    private static byte[] inflate(MemorySegment raw, int size, String name, Inflation inflation) throws ZipException {
+        final Inflater inflater = inflation.inflater;
+        inflater.reset();
+        try {
+            inflater.setInput(raw.asByteBuffer());
+            byte[] out = new byte[size];
+            int off = 0;
+            while (off < size) {
+                int n = inflater.inflate(out, off, size - off);
+                if (n == 0 && (inflater.finished() || inflater.needsDictionary() || inflater.needsInput())) break;
+                off += n;
+            }
+            if (off != size) throw new ZipException("Truncated entry " + name);
+            return out;
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupted entry " + name + ": " + e.getMessage());
+        } finally {
+            // drops the buffer, whose segment may be unmapped before this inflater is used again
+            inflater.reset();
+        }
+    }
+
+    private void checkBounds(long offset, long length, Entry entry) throws ZipException {
+        if (offset < 0 || length < 0 || offset + length > segment.byteSize())
+            throw new ZipException("Entry " + entry.name() + " exceeds the archive");
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        final long fileSize = segment.byteSize();
+        if (fileSize < END_HEADER) throw new ZipException("Not a zip archive");
+        final long tailStart = Math.max(0, fileSize - END_HEADER - 0xFFFF);
+
+        long end = -1;
+        for (long i = fileSize - END_HEADER; i >= tailStart; i--) {
+            if (segment.get(INT, i) == END_SIG) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) throw new ZipException("End of central directory not found");
+
+        long count = Short.toUnsignedInt(segment.get(SHORT, end + 10));
+        long cenSize = Integer.toUnsignedLong(segment.get(INT, end + 12));
+        long cenOffset = Integer.toUnsignedLong(segment.get(INT, end + 16));
+
+        if (end >= 20 && segment.get(INT, end - 20) == ZIP64_LOCATOR_SIG) {
+            final long end64 = segment.get(LONG, end - 20 + 8);
+            if (end64 < 0 || end64 + 56 > fileSize || segment.get(INT, end64) != ZIP64_END_SIG)
+                throw new ZipException("Bad zip64 end of central directory");
+            count = segment.get(LONG, end64 + 32);
+            cenSize = segment.get(LONG, end64 + 40);
+            cenOffset = segment.get(LONG, end64 + 48);
+        }
+        if (cenOffset < 0 || cenSize < 0 || cenOffset + cenSize > fileSize)
+            throw new ZipException("Bad central directory");
+
+        final MemorySegment cen = segment.asSlice(cenOffset, cenSize);
+        List<Entry> list = new ArrayList<>(Math.toIntExact(count));
+        long pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (cen.get(INT, pos) != CEN_SIG) throw new ZipException("Bad central directory header");
+            final int method = Short.toUnsignedInt(cen.get(SHORT, pos + 10));
+            final long crc = Integer.toUnsignedLong(cen.get(INT, pos + 16));
+            long compressedSize = Integer.toUnsignedLong(cen.get(INT, pos + 20));
+            long size = Integer.toUnsignedLong(cen.get(INT, pos + 24));
+            final int nameLength = Short.toUnsignedInt(cen.get(SHORT, pos + 28));
+            final int extraLength = Short.toUnsignedInt(cen.get(SHORT, pos + 30));
+            final int commentLength = Short.toUnsignedInt(cen.get(SHORT, pos + 32));
+            long offset = Integer.toUnsignedLong(cen.get(INT, pos + 42));
+
+            final String name = new String(cen.asSlice(pos + CEN_HEADER, nameLength).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+
+            // zip64 extended information
+            long extra = pos + CEN_HEADER + nameLength;
+            final long extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                final int tag = Short.toUnsignedInt(cen.get(SHORT, extra));
+                final int length = Short.toUnsignedInt(cen.get(SHORT, extra + 2));
+                if (tag == 0x0001) {
+                    long p = extra + 4;
+                    if (size == ZIP64_MAGIC) { size = cen.get(LONG, p); p += 8; }
+                    if (compressedSize == ZIP64_MAGIC) { compressedSize = cen.get(LONG, p); p += 8; }
+                    if (offset == ZIP64_MAGIC) { offset = cen.get(LONG, p); }
+                    break;
+                }
+                extra += 4 + length;
+            }
+
+            list.add(new Entry(name, method, crc, compressedSize, size, offset));
+            pos = extraEnd + commentLength;
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Unmaps the archive, and closes the archive it was {@linkplain #openNested opened from}.
+     * Segments from {@link #rawSegment} must no longer be in use.
+     */
+    @Override
+    public void close() {
+        if (arena != null) arena.close();
+        if (parent != null) parent.close();
+    }
+
+    /**
+     * @return a read-only view of the whole archive, valid until it is closed
+     */
+    public MemorySegment segment() {
+        return segment.asReadOnly();
+    }
+}
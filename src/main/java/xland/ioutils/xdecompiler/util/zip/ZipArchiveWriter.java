@@ -0,0 +1,412 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.util.zip;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import xland.ioutils.xdecompiler.util.CommonUtils;
+import xland.ioutils.xdecompiler.util.ConcurrentUtils;
+import xland.ioutils.xdecompiler.util.LogUtils;
+import xland.ioutils.xdecompiler.util.PerThread;
+import xland.ioutils.xdecompiler.util.PublicProperties;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes zip archives whose entries are either deflated here, or copied as-is from a {@link ZipArchive}
+ * without being inflated and deflated again.
+ * <p>
+ * Not thread-safe. Sizes and CRC are always known upfront, so no data descriptors are written.
+ * <p>
+ * With more than one deflate thread, entries are compressed on a pool owned by the writer, and appended
+ * to the output in the order they were submitted. At most a bounded number of entries are pending at a time.
+ */
+public final class ZipArchiveWriter implements Closeable {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "png", "jpg", "jpeg", "gif", "webp", "ogg", "mp3", "zip", "jar", "gz", "xz", "bz2", "7z", "zst"
+    );
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int VERSION_NEEDED = 20, VERSION_NEEDED_ZIP64 = 45;
+    private static final int DOS_EPOCH = (1 << 21) | (1 << 16);     // 1980-01-01 00:00:00
+
+    private final OutputStream out;
+    private final int dosTime;
+    private final List<CentralRecord> records = new ArrayList<>();
+    private final Deflater deflater = newDeflater();
+    private final @Nullable ExecutorService deflateExecutor;
+    // one deflater per pool thread, ended along with the pool
+    private final @Nullable PerThread<Deflater> poolDeflaters;
+    private final int maxPending;
+    private final ArrayDeque<Future<Compressed>> pending = new ArrayDeque<>();
+    private byte @Nullable [] copyBuffer;
+    private long written;
+    private boolean finished;
+
+    public ZipArchiveWriter(OutputStream out) {
+        this(out, 1);
+    }
+
+    public ZipArchiveWriter(OutputStream out, int deflateThreads) {
+        this.out = out;
+        // a fixed timestamp keeps archives reproducible
+        this.dosTime = PublicProperties.deterministic() ? DOS_EPOCH : toDosTime(LocalDateTime.now());
+        if (deflateThreads > 1) {
+            this.deflateExecutor = ConcurrentUtils.namedPlatformThreadExecutor("zip-deflate", deflateThreads);
+            this.poolDeflaters = new PerThread<>(ZipArchiveWriter::newDeflater, Deflater::end);
+            this.maxPending = deflateThreads * 4;
+        } else {
+            this.deflateExecutor = null;
+            this.poolDeflaters = null;
+            this.maxPending = 0;
+        }
+    }
+
+    public static ZipArchiveWriter create(Path path) throws IOException {
+        return create(path, PublicProperties.deflateThreads());
+    }
+
+    public static ZipArchiveWriter create(Path path, int deflateThreads) throws IOException {
+        return new ZipArchiveWriter(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16), deflateThreads);
+    }
+
+    private static Deflater newDeflater() {
+        return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    private record CentralRecord(byte[] name, int method, long crc, long compressedSize, long size, long offset) {}
+
+    private record Compressed(String name, int method, long crc, long size, MemorySegment data) {}
+
+    /**
+     * Formats which are compressed on their own gain nothing from deflating, so they are stored.
+     */
+    public static boolean isCompressedFormat(String name) {
+        final int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot < name.lastIndexOf('/')) return false;
+        return COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Queues an entry. {@code data} must not be modified afterward.
+     */
+    public void write(String name, byte[] data) throws IOException {
+        if (deflateExecutor == null) {
+            append(compress(name, data, deflater));
+            return;
+        }
+        ensureOpen();
+        pending.addLast(deflateExecutor.submit(() -> compress(name, data, poolDeflaters.get())));
+        drain(maxPending);
+    }
+
+    /**
+     * Writes an entry without compression, regardless of its format.
+     */
+    public void writeStored(String name, byte[] data) throws IOException {
+        writeStored(name, MemorySegment.ofArray(data));
+    }
+
+    /**
+     * Writes an entry without compression, straight from {@code data}, which may be off-heap.
+     * The segment must stay valid until the entry is appended.
+     */
+    public void writeStored(String name, MemorySegment data) throws IOException {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data.asByteBuffer());
+        enqueue(new Compressed(name, ZipEntry.STORED, crc32.getValue(), data.byteSize(), data));
+    }
+
+    private static long crc32(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        return crc32.getValue();
+    }
+
+    private static Compressed compress(String name, byte[] data, Deflater deflater) {
+        final long crc = crc32(data);
+
+        if (!isCompressedFormat(name) && data.length > 0) {
+            byte[] buf = new byte[Math.max(64, data.length / 2)];
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                length += deflater.deflate(buf, length, buf.length - length);
+            }
+
+            if (length < data.length) {
+                return new Compressed(name, ZipEntry.DEFLATED, crc, data.length, MemorySegment.ofArray(buf).asSlice(0, length));
+            }
+        }
+        return new Compressed(name, ZipEntry.STORED, crc, data.length, MemorySegment.ofArray(data));
+    }
+
+    /**
+     * Writes an entry whose data has been compressed already, e.g. with {@link ZipArchive#readRaw}.
+     */
+    public void writeRaw(ZipArchive.Entry entry, byte[] rawData) throws IOException {
+        if (rawData.length != entry.compressedSize())
+            throw new ZipException("Raw data of " + entry.name() + " does not match its compressed size");
+        writeRaw(entry.name(), entry.method(), entry.crc(), entry.size(), MemorySegment.ofArray(rawData));
+    }
+
+    /**
+     * Writes an entry whose data has been compressed already, straight from {@code rawData}, which may be off-heap.
+     * The segment must stay valid until the entry is appended.
+     *
+     * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param size the uncompressed size
+     */
+    public void writeRaw(String name, int method, long crc, long size, MemorySegment rawData) throws IOException {
+        enqueue(new Compressed(name, method, crc, size, rawData));
+    }
+
+    public void copyRaw(ZipArchive source, ZipArchive.Entry entry) throws IOException {
+        writeRaw(entry, source.readRaw(entry));
+    }
+
+    /**
+     * Appends an entry which needs no more work, after any entries still being deflated.
+     */
+    private void enqueue(Compressed c) throws IOException {
+        if (pending.isEmpty()) {
+            append(c);
+        } else {
+            ensureOpen();
+            pending.addLast(CompletableFuture.completedFuture(c));
+            drain(maxPending);
+        }
+    }
+
+    /**
+     * Appends finished entries from the head of the queue, waiting for them while more than {@code limit} are pending.
+     */
+    private void drain(int limit) throws IOException {
+        Future<Compressed> head;
+        while ((head = pending.peekFirst()) != null && (pending.size() > limit || head.isDone())) {
+            pending.removeFirst();
+            try {
+                append(head.get());
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for deflated entries");
+            } catch (ExecutionException e) {
+                CommonUtils.sneakyThrow(e.getCause());
+            }
+        }
+    }
+
+    private static void endDeflaters(ExecutorService executor, PerThread<Deflater> deflaters) throws IOException {
+        try {
+            // a deflater still running a cancelled entry must not be ended under it
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOGGER.warn("Still waiting for deflate threads to finish");
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for deflate threads");
+        }
+        deflaters.close();
+    }
+
+    private void ensureOpen() {
+        if (finished) throw new IllegalStateException("Archive is finished");
+    }
+
+    private void append(Compressed c) throws IOException {
+        ensureOpen();
+        writeEntry(c.name(), c.method(), c.crc(), c.size(), c.data());
+    }
+
+    private void writeEntry(String name, int method, long crc, long size, MemorySegment data) throws IOException {
+        final long length = data.byteSize();
+        if (size >= ZipArchive.ZIP64_MAGIC || length >= ZipArchive.ZIP64_MAGIC)
+            throw new ZipException("Entry too large: " + name);
+
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final long offset = written;
+
+        ByteBuffer loc = header(ZipArchive.LOC_HEADER + nameBytes.length);
+        loc.putInt(ZipArchive.LOC_SIG)
+                .putShort((short) VERSION_NEEDED)
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) method)
+                .putInt(dosTime)
+                .putInt((int) crc)
+                .putInt((int) length)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .put(nameBytes);
+        emit(loc.array(), loc.position());
+        emit(data);
+
+        records.add(new CentralRecord(nameBytes, method, crc, length, size, offset));
+    }
+
+    /**
+     * Writes the central directory. The underlying stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        try {
+            drain(0);
+        } finally {
+            finished = true;
+            deflater.end();
+            if (deflateExecutor != null) {
+                pending.forEach(f -> f.cancel(false));
+                deflateExecutor.shutdownNow();
+                endDeflaters(deflateExecutor, poolDeflaters);
+            }
+        }
+
+        final long cenOffset = written;
+        for (CentralRecord r : records) {
+            final boolean zip64 = r.offset() >= ZipArchive.ZIP64_MAGIC;
+            ByteBuffer cen = header(ZipArchive.CEN_HEADER + r.name().length + (zip64 ? 12 : 0));
+            cen.putInt(ZipArchive.CEN_SIG)
+                    .putShort((short) (zip64 ? VERSION_NEEDED_ZIP64 : VERSION_NEEDED))   // version made by
+                    .putShort((short) (zip64 ? VERSION_NEEDED_ZIP64 : VERSION_NEEDED))
+                    .putShort((short) FLAG_UTF8)
+                    .putShort((short) r.method())
+                    .putInt(dosTime)
+                    .putInt((int) r.crc())
+                    .putInt((int) r.compressedSize())
+                    .putInt((int) r.size())
+                    .putShort((short) r.name().length)
+                    .putShort((short) (zip64 ? 12 : 0))
+                    .putShort((short) 0)    // comment
+                    .putShort((short) 0)    // disk
+                    .putShort((short) 0)    // internal attributes
+                    .putInt(0)              // external attributes
+                    .putInt(zip64 ? -1 : (int) r.offset())
+                    .put(r.name());
+            if (zip64) {
+                cen.putShort((short) 0x0001).putShort((short) 8).putLong(r.offset());
+            }
+            emit(cen.array(), cen.position());
+        }
+        final long cenSize = written - cenOffset;
+
+        final boolean zip64 = records.size() >= 0xFFFF || cenOffset >= ZipArchive.ZIP64_MAGIC || cenSize >= ZipArchive.ZIP64_MAGIC;
+        if (zip64) {
+            final long end64Offset = written;
+            ByteBuffer end64 = header(56 + 20);
+            end64.putInt(ZipArchive.ZIP64_END_SIG)
+                    .putLong(44)    // size of the remaining record
+                    .putShort((short) VERSION_NEEDED_ZIP64)
+                    .putShort((short) VERSION_NEEDED_ZIP64)
+                    .putInt(0)
+                    .putInt(0)
+                    .putLong(records.size())
+                    .putLong(records.size())
+                    .putLong(cenSize)
+                    .putLong(cenOffset);
+            end64.putInt(ZipArchive.ZIP64_LOCATOR_SIG)
+                    .putInt(0)
+                    .putLong(end64Offset)
+                    .putInt(1);
+            emit(end64.array(), end64.position());
+        }
+
+        ByteBuffer end = header(ZipArchive.END_HEADER);
+        end.putInt(ZipArchive.END_SIG)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) (zip64 ? 0xFFFF : records.size()))
+                .putShort((short) (zip64 ? 0xFFFF : records.size()))
+                .putInt(zip64 ? -1 : (int) cenSize)
+                .putInt(zip64 ? -1 : (int) cenOffset)
+                .putShort((short) 0);
+        emit(end.array(), end.position());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void emit(byte[] b, int length) throws IOException {
+        emit0(b, 0, length);
+    }
+
+    private void emit(MemorySegment data) throws IOException {
+        if (data.heapBase().orElse(null) instanceof byte[] array) {
+            // for heap segments, the address is the offset into the array
+            emit0(array, (int) data.address(), (int) data.byteSize());
+            return;
+        }
+
+        if (copyBuffer == null) copyBuffer = new byte[8192];
+        for (long pos = 0, size = data.byteSize(); pos < size; ) {
+            final int n = (int) Math.min(copyBuffer.length, size - pos);
+            MemorySegment.copy(data, ValueLayout.JAVA_BYTE, pos, copyBuffer, 0, n);
+            emit0(copyBuffer, 0, n);
+            pos += n;
+        }
+    }
+
+    private void emit0(byte[] b, int offset, int length) throws IOException {
+        out.write(b, offset, length);
+        written += length;
+    }
+
+    private static ByteBuffer header(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int toDosTime(LocalDateTime t) {
+        if (t.getYear() < 1980) return DOS_EPOCH;
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+}
@@ -28,6 +28,8 @@
 # Assume the repos are cloned
 XDECOMPILER_PWD=$(pwd)
 XDECOMPILER_RUN_RAW="java -Dxdecompiler.download.vineflower=$4 -Dxdecompiler.download.mc.manifest=$3"\
+" -Dxdecompiler.merge.cache=${XDECOMPILER_PWD}/merge-cache"\
+" -Dxdecompiler.download.store=${XDECOMPILER_PWD}/artifacts"\
 " -jar XDecompiler-fat.jar --decompiler $5"
 XDECOMPILER_TIMEOUT_SOFT=$1
 XDECOMPILER_TIMEOUT_FORCE=$2
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2026 teddyxlandlee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xland.ioutils.xdecompiler.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs {@link DownloadService} against a local {@link HttpServer}, whose handler is set by each test.
+ */
+class DownloadServiceTest {
+    private static final byte[] CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange, int request) throws IOException;
+    }
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile Handler handler;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                handler.handle(exchange, requests.incrementAndGet());
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private URL url() throws IOException {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/file").toURL();
+    }
+
+    private static DownloadService service(int connectionsPerHost) {
+        return new DownloadService(connectionsPerHost, 3, 1);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void respondRange(HttpExchange exchange) throws IOException {
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range == null) {
+            respond(exchange, 200, CONTENT);
+            return;
+        }
+        final String[] bounds = range.substring("bytes=".length()).split("-");
+        final int first = Integer.parseInt(bounds[0]);
+        final int last = Math.min(Integer.parseInt(bounds[1]), CONTENT.length - 1);
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + first + '-' + last + '/' + CONTENT.length);
+        exchange.sendResponseHeaders(206, last - first + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(CONTENT, first, last - first + 1);
+        }
+    }
+
+    @Test
+    void retriesServerErrors() throws IOException {
+        handler = (exchange, request) -> respond(exchange, request < 3 ? 503 : 200, request < 3 ? new byte[0] : CONTENT);
+        assertEquals(new String(CONTENT, StandardCharsets.US_ASCII), service(8).readString(url()));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void retriesTooManyRequests() throws IOException {
+        handler = (exchange, request) -> respond(exchange, request < 2 ? 429 : 200, request < 2 ? new byte[0] : CONTENT);
+        try (InputStream body = service(8).open(url())) {
+            assertArrayEquals(CONTENT, body.readAllBytes());
+        }
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void givesUpAfterRetries() {
+        handler = (exchange, _) -> respond(exchange, 500, new byte[0]);
+        assertThrows(IOException.class, () -> service(8).readString(url()));
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    void doesNotRetryNotFound() {
+        handler = (exchange, _) -> respond(exchange, 404, new byte[0]);
+        assertThrows(FileNotFoundException.class, () -> service(8).readString(url()));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void retriesBrokenBody() throws IOException {
+        handler = (exchange, request) -> {
+            if (request > 1) {
+                respond(exchange, 200, CONTENT);
+                return;
+            }
+            // announces the whole content, then drops the connection
+            exchange.sendResponseHeaders(200, CONTENT.length);
+            exchange.getResponseBody().write(CONTENT, 0, 4);
+        };
+        assertArrayEquals(CONTENT, service(8).read(url(), InputStream::readAllBytes));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void doesNotRetryReaderFailures() throws IOException {
+        handler = (exchange, _) -> respond(exchange, 200, CONTENT);
+        final IOException diskFull = new IOException("No space left on device");
+        final IOException thrown = assertThrows(IOException.class, () -> service(8).read(url(), body -> {
+            body.readAllBytes();
+            throw diskFull;
+        }));
+        assertSame(diskFull, thrown);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void servesRanges() throws IOException {
+        handler = (exchange, _) -> respondRange(exchange);
+        final DownloadService service = service(8);
+        try (DownloadService.RangeBody range = service.openRange(url(), 4, 9)) {
+            assertNotNull(range);
+            assertEquals(CONTENT.length, range.totalLength());
+            assertArrayEquals(slice(4, 9), range.body().readAllBytes());
+        }
+        assertArrayEquals(slice(30, CONTENT.length - 1), service.readRange(url(), 30, 99, InputStream::readAllBytes));
+    }
+
+    @Test
+    void detectsIgnoredRanges() throws IOException {
+        handler = (exchange, _) -> respond(exchange, 200, CONTENT);
+        final DownloadService service = service(8);
+        assertNull(service.openRange(url(), 0, 9));
+        assertThrows(IOException.class, () -> service.readRange(url(), 0, 9, InputStream::readAllBytes));
+        // a server ignoring ranges is not asked again
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void releasesPermits() throws IOException {
+        handler = (exchange, request) -> {
+            switch (request) {
+                case 1 -> respond(exchange, 404, new byte[0]);
+                case 2 -> respond(exchange, 200, CONTENT);      // a range request answered in full
+                default -> respondRange(exchange);
+            }
+        };
+        // a single permit, which every request below would wait for forever if an earlier one kept it
+        final DownloadService service = service(1);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertThrows(FileNotFoundException.class, () -> service.open(url()));
+            assertNull(service.openRange(url(), 0, 9));
+            assertThrows(IOException.class, () -> service.read(url(), _ -> {
+                throw new IOException("Reader failed");
+            }));
+            service.open(url()).close();
+            try (DownloadService.RangeBody range = service.openRange(url(), 0, 9)) {
+                assertNotNull(range);
+            }
+            assertArrayEquals(CONTENT, service.read(url(), InputStream::readAllBytes));
+        });
+    }
+
+    @Test
+    void capsConcurrentRequests() throws Exception {
+        final AtomicInteger active = new AtomicInteger(), maxActive = new AtomicInteger();
+        handler = (exchange, _) -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+                respond(exchange, 200, CONTENT);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                active.decrementAndGet();
+            }
+        };
+        final DownloadService service = service(2);
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            final List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> service.read(url(), InputStream::readAllBytes)));
+            }
+            for (Future<byte[]> future : futures) {
+                assertArrayEquals(CONTENT, future.get());
+            }
+        }
+        assertEquals(8, requests.get());
+        assertTrue(maxActive.get() <= 2, () -> maxActive.get() + " concurrent requests");
+    }
+
+    private static byte[] slice(int first, int last) {
+        final byte[] b = new byte[last - first + 1];
+        System.arraycopy(CONTENT, first, b, 0, b.length);
+        return b;
+    }
+}